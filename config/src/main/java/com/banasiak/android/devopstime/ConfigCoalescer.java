@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+// Turns a burst of config updates, e.g. from a slider being dragged in the companion app, into
+// one: the first update of a burst schedules the apply COALESCE_MS later, those arriving until
+// then replace it. Not thread safe, offer() and take() are called on the thread that applies.
+public final class ConfigCoalescer {
+
+    // config updates arriving within this long of each other are applied together
+    public static final long COALESCE_MS = 200;
+
+    // How the owner gets back to take(), e.g. a Handler message.
+    public interface Scheduler {
+
+        // Calls take() delayMs from now, on the thread offer() was called on.
+        void schedule(long delayMs);
+    }
+
+    private final Scheduler mScheduler;
+
+    // the latest config offered since the last take()
+    private WatchFaceConfig mPending;
+
+    public ConfigCoalescer(Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    public void offer(WatchFaceConfig config) {
+        if (mPending == null) {
+            mScheduler.schedule(COALESCE_MS);
+        }
+        mPending = config;
+    }
+
+    // Returns the config to apply, null if there's none, e.g. after clear().
+    public WatchFaceConfig take() {
+        WatchFaceConfig config = mPending;
+        mPending = null;
+        return config;
+    }
+
+    // Drops the pending config, the owner cancels what it scheduled.
+    public void clear() {
+        mPending = null;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.util.Random;
+
+// Identifies one config the companion app sent and when, so that the watch can time each stage
+// it goes through until it is on screen. Sent next to the config, not part of it: the same
+// config sent twice is still equal. The origin is wall clock time, comparing it with the
+// watch's clock is only as good as the two clocks agree, usually within a few ms as both follow
+// the network time.
+public final class ConfigTrace {
+
+    public static final String KEY_TRACE_ID = "trace_id";
+
+    public static final String KEY_TRACE_ORIGIN = "trace_origin";
+
+    private static final Random sRandom = new Random();
+
+    public final long id;
+
+    // System.currentTimeMillis() on the sender
+    public final long originMs;
+
+    public ConfigTrace(long id, long originMs) {
+        this.id = id;
+        this.originMs = originMs;
+    }
+
+    // A new trace starting now.
+    public static ConfigTrace start() {
+        return new ConfigTrace(sRandom.nextLong(), System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return Long.toHexString(id);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+// One end of the link the config travels over: the companion app sends the config and
+// receives what each watch applied, the watch face the other way around. Like Data Layer
+// items, only the latest value each source sent is kept: a receiver may never see values that
+// were superseded before they were delivered, but always gets the latest one, possibly twice.
+public interface ConfigTransport {
+
+    // Callback interface for what the other end sends, called on the thread of the transport
+    interface Receiver {
+
+        // source identifies the sender, e.g. the node id of a watch, trace is null unless the
+        // config was sent with one and it is the change itself being delivered, not the
+        // current value caught up with
+        void onConfigReceived(String source, WatchFaceConfig config, ConfigTrace trace);
+
+        // Everything that was current when the receiver was set has been delivered, whatever
+        // follows was sent after.
+        void onCaughtUp();
+    }
+
+    // Sends config to the other end, never blocks. trace may be null.
+    void send(WatchFaceConfig config, ConfigTrace trace);
+
+    // Delivers what is current at the other end and then what it sends from now on, null stops
+    // delivering.
+    void setReceiver(Receiver receiver);
+}
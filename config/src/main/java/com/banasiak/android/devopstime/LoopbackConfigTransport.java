@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.util.concurrent.Executor;
+
+// Both ends of a ConfigTransport in one process, e.g. to run the companion and the watch side
+// against each other without a Data Layer. Each end delivers on an executor of its own that
+// must run one task at a time, in order. A value sent while the previous one is still waiting
+// to be delivered replaces it, the way a DataItem that changes again before the listener got
+// to it only shows up once.
+public final class LoopbackConfigTransport {
+
+    public static final String COMPANION = "companion";
+
+    public static final String WATCH = "watch";
+
+    private final End mCompanion;
+
+    private final End mWatch;
+
+    public LoopbackConfigTransport(Executor companionExecutor, Executor watchExecutor) {
+        mCompanion = new End(COMPANION, companionExecutor);
+        mWatch = new End(WATCH, watchExecutor);
+        mCompanion.mPeer = mWatch;
+        mWatch.mPeer = mCompanion;
+    }
+
+    public ConfigTransport companion() {
+        return mCompanion;
+    }
+
+    public ConfigTransport watch() {
+        return mWatch;
+    }
+
+    private static final class Sent {
+
+        final WatchFaceConfig config;
+
+        final ConfigTrace trace;
+
+        Sent(WatchFaceConfig config, ConfigTrace trace) {
+            this.config = config;
+            this.trace = trace;
+        }
+    }
+
+    private static final class End implements ConfigTransport {
+
+        private final String mSource;
+
+        private final Executor mExecutor;
+
+        private End mPeer;
+
+        private volatile Receiver mReceiver;
+
+        // the receiver caught up and delivered to, only touched on mExecutor
+        private Receiver mDelivering;
+
+        // what the peer sent last, delivered or not, guarded by this
+        private Sent mCurrent;
+
+        // mCurrent while nobody has taken it yet, null otherwise, guarded by this
+        private Sent mUndelivered;
+
+        private final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+                Receiver receiver = mDelivering;
+                if (receiver == null || receiver != mReceiver) {
+                    // left for the catch-up of the receiver set next
+                    return;
+                }
+                Sent sent = takeUndelivered();
+                if (sent != null) {
+                    receiver.onConfigReceived(mPeer.mSource, sent.config, sent.trace);
+                }
+            }
+        };
+
+        End(String source, Executor executor) {
+            mSource = source;
+            mExecutor = executor;
+        }
+
+        @Override
+        public void send(WatchFaceConfig config, ConfigTrace trace) {
+            mPeer.receive(new Sent(config, trace));
+        }
+
+        private void receive(Sent sent) {
+            boolean first;
+            synchronized (this) {
+                mCurrent = sent;
+                // only the first of a burst schedules, the others ride along
+                first = mUndelivered == null;
+                mUndelivered = sent;
+            }
+            if (first) {
+                mExecutor.execute(mDeliver);
+            }
+        }
+
+        private synchronized Sent takeUndelivered() {
+            Sent sent = mUndelivered;
+            mUndelivered = null;
+            return sent;
+        }
+
+        @Override
+        public void setReceiver(final Receiver receiver) {
+            mReceiver = receiver;
+            if (receiver == null) {
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (receiver != mReceiver) {
+                        // replaced meanwhile, the catch-up of the new one follows
+                        return;
+                    }
+                    mDelivering = receiver;
+                    Sent current;
+                    Sent undelivered;
+                    synchronized (End.this) {
+                        current = mCurrent;
+                        undelivered = takeUndelivered();
+                    }
+                    if (current != null) {
+                        // a change nobody took yet goes out once, with its trace
+                        receiver.onConfigReceived(mPeer.mSource, current.config,
+                                undelivered != null ? current.trace : null);
+                    }
+                    receiver.onCaughtUp();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.util.Arrays;
+
+// The settings the companion app makes for the watch face, with the keys they are stored under
+// and their defaults, the one place both apps take them from. Immutable, build one with
+// Builder.
+//
+// Synced as the fixed layout of toBytes(), one byte per field:
+//
+//   0       format version of the writer
+//   1 - 6   clock, marker, timezone, date, time and epoch text sizes, unsigned
+//   7       dim flags, see FLAG_*
+//   8       timestamp time zone
+//
+// Fields are only ever added, at the end or in a spare flag bit, together with a new
+// FORMAT_VERSION. Readers ignore bytes and bits they don't know and use the default for fields
+// added after the version of the data they read, so either side may be the newer one.
+public final class WatchFaceConfig {
+
+    // Where the settings are kept one key each, e.g. SharedPreferences or a DataMap.
+    public interface Source {
+
+        int getInt(String key, int defaultValue);
+
+        boolean getBoolean(String key, boolean defaultValue);
+    }
+
+    public interface Sink {
+
+        void putInt(String key, int value);
+
+        void putBoolean(String key, boolean value);
+    }
+
+    public static final int LOCAL = 0;
+
+    public static final int UTC = 1;
+
+    public static final int INTERACTIVE = 2;
+
+    public static final String KEY_CLOCK_SIZE = "clock_size";
+
+    public static final int KEY_CLOCK_SIZE_DEF = 50;
+
+    public static final String KEY_CLOCK_DIM = "clock_dim";
+
+    public static final boolean KEY_CLOCK_DIM_DEF = true;
+
+    public static final String KEY_MARKER_SIZE = "marker_size";
+
+    public static final int KEY_MARKER_SIZE_DEF = 16;
+
+    public static final String KEY_MARKER_DIM = "marker_dim";
+
+    public static final boolean KEY_MARKER_DIM_DEF = true;
+
+    public static final String KEY_TZ_SIZE = "tz_size";
+
+    public static final int KEY_TZ_SIZE_DEF = 16;
+
+    public static final String KEY_TZ_DIM = "tz_dim";
+
+    public static final boolean KEY_TZ_DIM_DEF = false;
+
+    public static final String KEY_DATE_SIZE = "date_size";
+
+    public static final int KEY_DATE_SIZE_DEF = 18;
+
+    public static final String KEY_DATE_DIM = "date_dim";
+
+    public static final boolean KEY_DATE_DIM_DEF = false;
+
+    public static final String KEY_TIME_SIZE = "time_size";
+
+    public static final int KEY_TIME_SIZE_DEF = 18;
+
+    public static final String KEY_TIME_DIM = "time_dim";
+
+    public static final boolean KEY_TIME_DIM_DEF = false;
+
+    public static final String KEY_EPOCH_SIZE = "epoch_size";
+
+    public static final int KEY_EPOCH_SIZE_DEF = 18;
+
+    public static final String KEY_EPOCH_DIM = "epoch_dim";
+
+    public static final boolean KEY_EPOCH_DIM_DEF = false;
+
+    public static final String KEY_USE_SHORT_CARDS = "use_short_cards";
+
+    public static final boolean KEY_USE_SHORT_CARDS_DEF = true;
+
+    public static final String KEY_TIME_TZ = "timestamp_tz";
+
+    public static final int KEY_TIME_TZ_DEF = INTERACTIVE;
+
+    // the whole config as toBytes(), in the config DataItem
+    public static final String KEY_CONFIG = "config";
+
+    public static final int FORMAT_VERSION = 1;
+
+    // the size of toBytes() for each FORMAT_VERSION
+    private static final int SIZE_V1 = 9;
+
+    private static final int MAX_SIZE = 0xff;
+
+    private static final int FLAG_CLOCK_DIM = 1;
+
+    private static final int FLAG_MARKER_DIM = 1 << 1;
+
+    private static final int FLAG_TZ_DIM = 1 << 2;
+
+    private static final int FLAG_DATE_DIM = 1 << 3;
+
+    private static final int FLAG_TIME_DIM = 1 << 4;
+
+    private static final int FLAG_EPOCH_DIM = 1 << 5;
+
+    private static final int FLAG_USE_SHORT_CARDS = 1 << 6;
+
+    public static final WatchFaceConfig DEFAULT = new Builder().build();
+
+    // text sizes, in dp
+    public final int clockSize;
+
+    public final int markerSize;
+
+    public final int tzSize;
+
+    public final int dateSize;
+
+    public final int timeSize;
+
+    public final int epochSize;
+
+    // whether each line is still shown in ambient mode
+    public final boolean clockDim;
+
+    public final boolean markerDim;
+
+    public final boolean tzDim;
+
+    public final boolean dateDim;
+
+    public final boolean timeDim;
+
+    public final boolean epochDim;
+
+    public final boolean useShortCards;
+
+    // LOCAL, UTC or INTERACTIVE
+    public final int timestampTz;
+
+    private WatchFaceConfig(Builder builder) {
+        clockSize = builder.mClockSize;
+        markerSize = builder.mMarkerSize;
+        tzSize = builder.mTzSize;
+        dateSize = builder.mDateSize;
+        timeSize = builder.mTimeSize;
+        epochSize = builder.mEpochSize;
+        clockDim = builder.mClockDim;
+        markerDim = builder.mMarkerDim;
+        tzDim = builder.mTzDim;
+        dateDim = builder.mDateDim;
+        timeDim = builder.mTimeDim;
+        epochDim = builder.mEpochDim;
+        useShortCards = builder.mUseShortCards;
+        timestampTz = builder.mTimestampTz;
+    }
+
+    // Puts every setting under its key.
+    public void writeTo(Sink sink) {
+        sink.putInt(KEY_CLOCK_SIZE, clockSize);
+        sink.putInt(KEY_MARKER_SIZE, markerSize);
+        sink.putInt(KEY_TZ_SIZE, tzSize);
+        sink.putInt(KEY_DATE_SIZE, dateSize);
+        sink.putInt(KEY_TIME_SIZE, timeSize);
+        sink.putInt(KEY_EPOCH_SIZE, epochSize);
+        sink.putBoolean(KEY_CLOCK_DIM, clockDim);
+        sink.putBoolean(KEY_MARKER_DIM, markerDim);
+        sink.putBoolean(KEY_TZ_DIM, tzDim);
+        sink.putBoolean(KEY_DATE_DIM, dateDim);
+        sink.putBoolean(KEY_TIME_DIM, timeDim);
+        sink.putBoolean(KEY_EPOCH_DIM, epochDim);
+        sink.putBoolean(KEY_USE_SHORT_CARDS, useShortCards);
+        sink.putInt(KEY_TIME_TZ, timestampTz);
+    }
+
+    public byte[] toBytes() {
+        byte[] bytes = new byte[SIZE_V1];
+        bytes[0] = FORMAT_VERSION;
+        bytes[1] = (byte) clockSize;
+        bytes[2] = (byte) markerSize;
+        bytes[3] = (byte) tzSize;
+        bytes[4] = (byte) dateSize;
+        bytes[5] = (byte) timeSize;
+        bytes[6] = (byte) epochSize;
+        int flags = 0;
+        flags |= clockDim ? FLAG_CLOCK_DIM : 0;
+        flags |= markerDim ? FLAG_MARKER_DIM : 0;
+        flags |= tzDim ? FLAG_TZ_DIM : 0;
+        flags |= dateDim ? FLAG_DATE_DIM : 0;
+        flags |= timeDim ? FLAG_TIME_DIM : 0;
+        flags |= epochDim ? FLAG_EPOCH_DIM : 0;
+        flags |= useShortCards ? FLAG_USE_SHORT_CARDS : 0;
+        bytes[7] = (byte) flags;
+        bytes[8] = (byte) timestampTz;
+        return bytes;
+    }
+
+    // Reads what toBytes() of this or any other FORMAT_VERSION wrote. Throws
+    // IllegalArgumentException if the bytes are shorter than their version says.
+    public static WatchFaceConfig fromBytes(byte[] bytes) {
+        if (bytes.length == 0 || bytes[0] < 1 || bytes.length < SIZE_V1) {
+            throw new IllegalArgumentException("not a watch face config: "
+                    + Arrays.toString(bytes));
+        }
+        int flags = bytes[7];
+        return new Builder()
+                .setClockSize(bytes[1] & 0xff)
+                .setMarkerSize(bytes[2] & 0xff)
+                .setTzSize(bytes[3] & 0xff)
+                .setDateSize(bytes[4] & 0xff)
+                .setTimeSize(bytes[5] & 0xff)
+                .setEpochSize(bytes[6] & 0xff)
+                .setClockDim((flags & FLAG_CLOCK_DIM) != 0)
+                .setMarkerDim((flags & FLAG_MARKER_DIM) != 0)
+                .setTzDim((flags & FLAG_TZ_DIM) != 0)
+                .setDateDim((flags & FLAG_DATE_DIM) != 0)
+                .setTimeDim((flags & FLAG_TIME_DIM) != 0)
+                .setEpochDim((flags & FLAG_EPOCH_DIM) != 0)
+                .setUseShortCards((flags & FLAG_USE_SHORT_CARDS) != 0)
+                .setTimestampTz(bytes[8] & 0xff)
+                .build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WatchFaceConfig)) {
+            return false;
+        }
+        WatchFaceConfig other = (WatchFaceConfig) o;
+        return clockSize == other.clockSize
+                && markerSize == other.markerSize
+                && tzSize == other.tzSize
+                && dateSize == other.dateSize
+                && timeSize == other.timeSize
+                && epochSize == other.epochSize
+                && clockDim == other.clockDim
+                && markerDim == other.markerDim
+                && tzDim == other.tzDim
+                && dateDim == other.dateDim
+                && timeDim == other.timeDim
+                && epochDim == other.epochDim
+                && useShortCards == other.useShortCards
+                && timestampTz == other.timestampTz;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toBytes());
+    }
+
+    @Override
+    public String toString() {
+        return "WatchFaceConfig{sizes=" + clockSize + "/" + markerSize + "/" + tzSize + "/"
+                + dateSize + "/" + timeSize + "/" + epochSize
+                + ", dim=" + clockDim + "/" + markerDim + "/" + tzDim + "/" + dateDim + "/"
+                + timeDim + "/" + epochDim
+                + ", useShortCards=" + useShortCards + ", timestampTz=" + timestampTz + "}";
+    }
+
+    public static final class Builder {
+
+        private int mClockSize = KEY_CLOCK_SIZE_DEF;
+
+        private int mMarkerSize = KEY_MARKER_SIZE_DEF;
+
+        private int mTzSize = KEY_TZ_SIZE_DEF;
+
+        private int mDateSize = KEY_DATE_SIZE_DEF;
+
+        private int mTimeSize = KEY_TIME_SIZE_DEF;
+
+        private int mEpochSize = KEY_EPOCH_SIZE_DEF;
+
+        private boolean mClockDim = KEY_CLOCK_DIM_DEF;
+
+        private boolean mMarkerDim = KEY_MARKER_DIM_DEF;
+
+        private boolean mTzDim = KEY_TZ_DIM_DEF;
+
+        private boolean mDateDim = KEY_DATE_DIM_DEF;
+
+        private boolean mTimeDim = KEY_TIME_DIM_DEF;
+
+        private boolean mEpochDim = KEY_EPOCH_DIM_DEF;
+
+        private boolean mUseShortCards = KEY_USE_SHORT_CARDS_DEF;
+
+        private int mTimestampTz = KEY_TIME_TZ_DEF;
+
+        // Starts from the defaults.
+        public Builder() {
+        }
+
+        // Starts from config, to change some of it.
+        public Builder(WatchFaceConfig config) {
+            mClockSize = config.clockSize;
+            mMarkerSize = config.markerSize;
+            mTzSize = config.tzSize;
+            mDateSize = config.dateSize;
+            mTimeSize = config.timeSize;
+            mEpochSize = config.epochSize;
+            mClockDim = config.clockDim;
+            mMarkerDim = config.markerDim;
+            mTzDim = config.tzDim;
+            mDateDim = config.dateDim;
+            mTimeDim = config.timeDim;
+            mEpochDim = config.epochDim;
+            mUseShortCards = config.useShortCards;
+            mTimestampTz = config.timestampTz;
+        }
+
+        // Takes the settings source has a key for, keeps the others. Sizes that don't fit, e.g.
+        // from old preferences or an old companion app, are clamped rather than rejected.
+        public Builder readFrom(Source source) {
+            setClockSize(clampSize(source.getInt(KEY_CLOCK_SIZE, mClockSize)));
+            setMarkerSize(clampSize(source.getInt(KEY_MARKER_SIZE, mMarkerSize)));
+            setTzSize(clampSize(source.getInt(KEY_TZ_SIZE, mTzSize)));
+            setDateSize(clampSize(source.getInt(KEY_DATE_SIZE, mDateSize)));
+            setTimeSize(clampSize(source.getInt(KEY_TIME_SIZE, mTimeSize)));
+            setEpochSize(clampSize(source.getInt(KEY_EPOCH_SIZE, mEpochSize)));
+            setClockDim(source.getBoolean(KEY_CLOCK_DIM, mClockDim));
+            setMarkerDim(source.getBoolean(KEY_MARKER_DIM, mMarkerDim));
+            setTzDim(source.getBoolean(KEY_TZ_DIM, mTzDim));
+            setDateDim(source.getBoolean(KEY_DATE_DIM, mDateDim));
+            setTimeDim(source.getBoolean(KEY_TIME_DIM, mTimeDim));
+            setEpochDim(source.getBoolean(KEY_EPOCH_DIM, mEpochDim));
+            setUseShortCards(source.getBoolean(KEY_USE_SHORT_CARDS, mUseShortCards));
+            setTimestampTz(source.getInt(KEY_TIME_TZ, mTimestampTz));
+            return this;
+        }
+
+        public Builder setClockSize(int size) {
+            mClockSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setMarkerSize(int size) {
+            mMarkerSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setTzSize(int size) {
+            mTzSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setDateSize(int size) {
+            mDateSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setTimeSize(int size) {
+            mTimeSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setEpochSize(int size) {
+            mEpochSize = checkSize(size);
+            return this;
+        }
+
+        public Builder setClockDim(boolean dim) {
+            mClockDim = dim;
+            return this;
+        }
+
+        public Builder setMarkerDim(boolean dim) {
+            mMarkerDim = dim;
+            return this;
+        }
+
+        public Builder setTzDim(boolean dim) {
+            mTzDim = dim;
+            return this;
+        }
+
+        public Builder setDateDim(boolean dim) {
+            mDateDim = dim;
+            return this;
+        }
+
+        public Builder setTimeDim(boolean dim) {
+            mTimeDim = dim;
+            return this;
+        }
+
+        public Builder setEpochDim(boolean dim) {
+            mEpochDim = dim;
+            return this;
+        }
+
+        public Builder setUseShortCards(boolean useShortCards) {
+            mUseShortCards = useShortCards;
+            return this;
+        }
+
+        // Unknown values, e.g. from a newer companion app, fall back to the default.
+        public Builder setTimestampTz(int timestampTz) {
+            mTimestampTz = timestampTz >= LOCAL && timestampTz <= INTERACTIVE ? timestampTz
+                    : KEY_TIME_TZ_DEF;
+            return this;
+        }
+
+        public WatchFaceConfig build() {
+            return new WatchFaceConfig(this);
+        }
+
+        // the sizes have one byte each in toBytes()
+        private static int clampSize(int size) {
+            return Math.max(0, Math.min(MAX_SIZE, size));
+        }
+
+        private static int checkSize(int size) {
+            if (size < 0 || size > MAX_SIZE) {
+                throw new IllegalArgumentException("text size out of range: " + size);
+            }
+            return size;
+        }
+    }
+}
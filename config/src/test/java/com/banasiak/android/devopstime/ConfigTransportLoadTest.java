@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Replays a stream of config changes, like a slider being dragged, from the companion end of
+// the loopback into a watch end that applies them through the engine's ConfigCoalescer and
+// acknowledges each applied config. Fails on updates applied twice, out of order or, for the
+// last one, not at all, and on more or fewer applies than the coalescing allows for, with the
+// counts and how long each change took until it or a newer one was applied in the message.
+public class ConfigTransportLoadTest {
+
+    private final ScheduledExecutorService mCompanionThread =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // stands in for the watch face's UI thread
+    private final ScheduledExecutorService mWatchThread =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private long[] mSentNanos;
+
+    private long[] mAppliedNanos;
+
+    // the counts and latencies of the last replay(), for the assertion messages
+    private String mSummary;
+
+    // every change gets its own config, its index spread over two of the sizes
+    private static WatchFaceConfig change(int index) {
+        return new WatchFaceConfig.Builder()
+                .setClockSize(index & 0xff)
+                .setMarkerSize(index >> 8)
+                .build();
+    }
+
+    private static int indexOf(WatchFaceConfig config) {
+        return config.clockSize | config.markerSize << 8;
+    }
+
+    @After
+    public void tearDown() {
+        mCompanionThread.shutdownNow();
+        mWatchThread.shutdownNow();
+    }
+
+    // Changes further apart than the coalescing window are each received and applied.
+    @Test
+    public void spacedChanges() throws InterruptedException {
+        int changes = 8;
+        Watch watch = replay(changes,
+                TimeUnit.MILLISECONDS.toNanos(ConfigCoalescer.COALESCE_MS * 2));
+        assertEquals(mSummary, changes, watch.mReceived);
+        assertEquals(mSummary, changes, watch.mApplied);
+    }
+
+    // 5000 changes 100 us apart: each window of COALESCE_MS takes in about 2000 of them and
+    // applies only the latest.
+    @Test
+    public void burstOfChanges() throws InterruptedException {
+        int changes = 5000;
+        long startNanos = System.nanoTime();
+        Watch watch = replay(changes, TimeUnit.MICROSECONDS.toNanos(100));
+        long sendingMs = TimeUnit.NANOSECONDS.toMillis(mSentNanos[changes - 1] - startNanos);
+        // a window opens with the first change received after the previous one closed, the
+        // last one possibly just after the sending ended
+        assertTrue(mSummary + ", sending took " + sendingMs + " ms",
+                watch.mApplied <= sendingMs / ConfigCoalescer.COALESCE_MS + 2);
+        assertTrue(mSummary, watch.mReceived >= watch.mApplied && watch.mReceived <= changes);
+    }
+
+    private Watch replay(int changes, long intervalNanos) throws InterruptedException {
+        mSentNanos = new long[changes];
+        mAppliedNanos = new long[changes];
+        final int last = changes - 1;
+        LoopbackConfigTransport loopback =
+                new LoopbackConfigTransport(mCompanionThread, mWatchThread);
+        Watch watch = new Watch(loopback.watch());
+        loopback.watch().setReceiver(watch);
+        final CountDownLatch lastAcknowledged = new CountDownLatch(1);
+        loopback.companion().setReceiver(new ConfigTransport.Receiver() {
+            @Override
+            public void onConfigReceived(String source, WatchFaceConfig config,
+                    ConfigTrace trace) {
+                if (indexOf(config) == last) {
+                    lastAcknowledged.countDown();
+                }
+            }
+
+            @Override
+            public void onCaughtUp() {
+            }
+        });
+
+        Arrays.fill(mAppliedNanos, -1);
+        for (int i = 0; i < changes; i++) {
+            mSentNanos[i] = System.nanoTime();
+            loopback.companion().send(change(i), new ConfigTrace(i, System.currentTimeMillis()));
+            LockSupport.parkNanos(intervalNanos);
+        }
+        assertTrue("last change not acknowledged", lastAcknowledged.await(
+                ConfigCoalescer.COALESCE_MS * 10, TimeUnit.MILLISECONDS));
+        // the acknowledgement is sent from within the apply, let it finish
+        mWatchThread.shutdown();
+        assertTrue(mWatchThread.awaitTermination(1, TimeUnit.SECONDS));
+
+        // a change that was superseded took effect with the next one applied
+        long[] latencies = new long[changes];
+        long visibleNanos = -1;
+        for (int i = last; i >= 0; i--) {
+            if (mAppliedNanos[i] >= 0) {
+                visibleNanos = mAppliedNanos[i];
+            }
+            latencies[i] = visibleNanos - mSentNanos[i];
+        }
+        Arrays.sort(latencies);
+        mSummary = String.format("sent %d, received %d, applied %d, superseded %d,"
+                        + " duplicated %d, reordered %d, mistraced %d;"
+                        + " send to apply ms: p50 %.1f, p99 %.1f, max %.1f",
+                changes, watch.mReceived, watch.mApplied, changes - watch.mApplied,
+                watch.mDuplicated, watch.mReordered, watch.mMistraced,
+                latencies[changes / 2] / 1e6, latencies[changes * 99 / 100] / 1e6,
+                latencies[last] / 1e6);
+
+        assertEquals(mSummary, 0, watch.mDuplicated);
+        assertEquals(mSummary, 0, watch.mReordered);
+        assertEquals(mSummary, 0, watch.mMistraced);
+        assertTrue(mSummary, mAppliedNanos[last] >= 0);
+        return watch;
+    }
+
+    // Only ever called on mWatchThread, like the engine on the UI thread.
+    private final class Watch implements ConfigTransport.Receiver, ConfigCoalescer.Scheduler,
+            Runnable {
+
+        private final ConfigTransport mTransport;
+
+        private final ConfigCoalescer mCoalescer = new ConfigCoalescer(this);
+
+        private int mLastApplied = -1;
+
+        int mReceived;
+
+        int mApplied;
+
+        int mDuplicated;
+
+        int mReordered;
+
+        // delivered with another config's trace
+        int mMistraced;
+
+        Watch(ConfigTransport transport) {
+            mTransport = transport;
+        }
+
+        @Override
+        public void onConfigReceived(String source, WatchFaceConfig config, ConfigTrace trace) {
+            mReceived++;
+            if (trace == null || trace.id != indexOf(config)) {
+                mMistraced++;
+            }
+            mCoalescer.offer(config);
+        }
+
+        @Override
+        public void onCaughtUp() {
+        }
+
+        @Override
+        public void schedule(long delayMs) {
+            mWatchThread.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        // MSG_APPLY_CONFIG
+        @Override
+        public void run() {
+            WatchFaceConfig config = mCoalescer.take();
+            if (config == null) {
+                return;
+            }
+            int index = indexOf(config);
+            if (index == mLastApplied) {
+                mDuplicated++;
+            } else if (index < mLastApplied) {
+                mReordered++;
+            } else {
+                mAppliedNanos[index] = System.nanoTime();
+                mLastApplied = index;
+                mApplied++;
+            }
+            mTransport.send(change(index), null);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LoopbackConfigTransportTest {
+
+    private final QueueExecutor mCompanionThread = new QueueExecutor();
+
+    private final QueueExecutor mWatchThread = new QueueExecutor();
+
+    private final LoopbackConfigTransport mLoopback =
+            new LoopbackConfigTransport(mCompanionThread, mWatchThread);
+
+    private static WatchFaceConfig config(int clockSize) {
+        return new WatchFaceConfig.Builder().setClockSize(clockSize).build();
+    }
+
+    @Test
+    public void changeSentBeforeTheReceiverIsDeliveredOnceWithItsTrace() {
+        ConfigTrace trace = new ConfigTrace(1, 0);
+        mLoopback.companion().send(config(10), trace);
+        Recorder recorder = new Recorder();
+        mLoopback.watch().setReceiver(recorder);
+        mWatchThread.runAll();
+
+        assertEquals(1, recorder.configs.size());
+        assertEquals(10, recorder.configs.get(0).clockSize);
+        assertSame(trace, recorder.traces.get(0));
+        assertEquals(1, recorder.caughtUpAt);
+    }
+
+    @Test
+    public void changeSentDuringSetReceiverIsDeliveredOnceWithItsTrace() {
+        Recorder recorder = new Recorder();
+        mLoopback.watch().setReceiver(recorder);
+        ConfigTrace trace = new ConfigTrace(1, 0);
+        // before the catch-up ran
+        mLoopback.companion().send(config(10), trace);
+        mWatchThread.runAll();
+
+        assertEquals(1, recorder.configs.size());
+        assertSame(trace, recorder.traces.get(0));
+    }
+
+    @Test
+    public void currentIsReplayedUntracedThenEveryChange() {
+        Recorder first = new Recorder();
+        mLoopback.watch().setReceiver(first);
+        mLoopback.companion().send(config(10), new ConfigTrace(1, 0));
+        mWatchThread.runAll();
+
+        Recorder second = new Recorder();
+        mLoopback.watch().setReceiver(second);
+        mWatchThread.runAll();
+        ConfigTrace trace = new ConfigTrace(2, 0);
+        mLoopback.companion().send(config(20), trace);
+        mWatchThread.runAll();
+
+        assertEquals(1, first.configs.size());
+        assertEquals(2, second.configs.size());
+        assertEquals(10, second.configs.get(0).clockSize);
+        assertNull(second.traces.get(0));
+        assertEquals(1, second.caughtUpAt);
+        assertEquals(20, second.configs.get(1).clockSize);
+        assertSame(trace, second.traces.get(1));
+    }
+
+    // Runs what it is given when told to, on the test thread.
+    private static final class QueueExecutor implements Executor {
+
+        private final Queue<Runnable> mTasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class Recorder implements ConfigTransport.Receiver {
+
+        final List<WatchFaceConfig> configs = new ArrayList<WatchFaceConfig>();
+
+        final List<ConfigTrace> traces = new ArrayList<ConfigTrace>();
+
+        // how many configs were received before onCaughtUp(), -1 until then
+        int caughtUpAt = -1;
+
+        @Override
+        public void onConfigReceived(String source, WatchFaceConfig config, ConfigTrace trace) {
+            configs.add(config);
+            traces.add(trace);
+        }
+
+        @Override
+        public void onCaughtUp() {
+            caughtUpAt = configs.size();
+        }
+    }
+}
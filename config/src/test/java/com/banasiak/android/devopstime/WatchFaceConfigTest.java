@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class WatchFaceConfigTest {
+
+    private static WatchFaceConfig custom() {
+        return new WatchFaceConfig.Builder()
+                .setClockSize(99)
+                .setMarkerSize(0)
+                .setTzSize(12)
+                .setDateSize(200)
+                .setTimeSize(255)
+                .setEpochSize(1)
+                .setClockDim(false)
+                .setMarkerDim(false)
+                .setTzDim(true)
+                .setDateDim(true)
+                .setTimeDim(true)
+                .setEpochDim(true)
+                .setUseShortCards(false)
+                .setTimestampTz(WatchFaceConfig.UTC)
+                .build();
+    }
+
+    @Test
+    public void roundTrips() {
+        WatchFaceConfig config = custom();
+        assertEquals(config, WatchFaceConfig.fromBytes(config.toBytes()));
+        assertEquals(WatchFaceConfig.DEFAULT,
+                WatchFaceConfig.fromBytes(WatchFaceConfig.DEFAULT.toBytes()));
+    }
+
+    @Test
+    public void everyFieldMatters() {
+        WatchFaceConfig config = custom();
+        WatchFaceConfig.Builder[] changed = {
+                new WatchFaceConfig.Builder(config).setClockSize(98),
+                new WatchFaceConfig.Builder(config).setMarkerSize(1),
+                new WatchFaceConfig.Builder(config).setTzSize(13),
+                new WatchFaceConfig.Builder(config).setDateSize(201),
+                new WatchFaceConfig.Builder(config).setTimeSize(254),
+                new WatchFaceConfig.Builder(config).setEpochSize(2),
+                new WatchFaceConfig.Builder(config).setClockDim(true),
+                new WatchFaceConfig.Builder(config).setMarkerDim(true),
+                new WatchFaceConfig.Builder(config).setTzDim(false),
+                new WatchFaceConfig.Builder(config).setDateDim(false),
+                new WatchFaceConfig.Builder(config).setTimeDim(false),
+                new WatchFaceConfig.Builder(config).setEpochDim(false),
+                new WatchFaceConfig.Builder(config).setUseShortCards(true),
+                new WatchFaceConfig.Builder(config).setTimestampTz(WatchFaceConfig.LOCAL),
+        };
+        for (WatchFaceConfig.Builder builder : changed) {
+            WatchFaceConfig other = builder.build();
+            assertNotEquals(config, other);
+            assertEquals(other, WatchFaceConfig.fromBytes(other.toBytes()));
+        }
+    }
+
+    @Test
+    public void readsWhatItWrote() {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        WatchFaceConfig config = custom();
+        config.writeTo(new WatchFaceConfig.Sink() {
+            @Override
+            public void putInt(String key, int value) {
+                values.put(key, value);
+            }
+
+            @Override
+            public void putBoolean(String key, boolean value) {
+                values.put(key, value);
+            }
+        });
+        assertEquals(config, new WatchFaceConfig.Builder().readFrom(source(values)).build());
+
+        // keys that aren't there keep what the builder had
+        values.remove(WatchFaceConfig.KEY_CLOCK_SIZE);
+        values.remove(WatchFaceConfig.KEY_TZ_DIM);
+        WatchFaceConfig read = new WatchFaceConfig.Builder().readFrom(source(values)).build();
+        assertEquals(WatchFaceConfig.KEY_CLOCK_SIZE_DEF, read.clockSize);
+        assertEquals(WatchFaceConfig.KEY_TZ_DIM_DEF, read.tzDim);
+        assertEquals(config.dateSize, read.dateSize);
+    }
+
+    private static WatchFaceConfig.Source source(final Map<String, Object> values) {
+        return new WatchFaceConfig.Source() {
+            @Override
+            public int getInt(String key, int defaultValue) {
+                Object value = values.get(key);
+                return value != null ? (Integer) value : defaultValue;
+            }
+
+            @Override
+            public boolean getBoolean(String key, boolean defaultValue) {
+                Object value = values.get(key);
+                return value != null ? (Boolean) value : defaultValue;
+            }
+        };
+    }
+
+    @Test
+    public void readsNewerVersions() {
+        WatchFaceConfig config = custom();
+        byte[] bytes = config.toBytes();
+        // a later version with one more field and a new flag
+        byte[] newer = Arrays.copyOf(bytes, bytes.length + 1);
+        newer[0] = WatchFaceConfig.FORMAT_VERSION + 1;
+        newer[7] |= 1 << 7;
+        newer[bytes.length] = 42;
+        assertEquals(config, WatchFaceConfig.fromBytes(newer));
+    }
+
+    @Test
+    public void unknownTimestampTzIsDefault() {
+        byte[] bytes = custom().toBytes();
+        bytes[8] = 7;
+        assertEquals(WatchFaceConfig.KEY_TIME_TZ_DEF,
+                WatchFaceConfig.fromBytes(bytes).timestampTz);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncated() {
+        byte[] bytes = custom().toBytes();
+        WatchFaceConfig.fromBytes(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmpty() {
+        WatchFaceConfig.fromBytes(new byte[0]);
+    }
+
+    @Test
+    public void clampsSizesReadThatDontFit() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(WatchFaceConfig.KEY_CLOCK_SIZE, 1000);
+        values.put(WatchFaceConfig.KEY_EPOCH_SIZE, -5);
+        WatchFaceConfig read = new WatchFaceConfig.Builder().readFrom(source(values)).build();
+        assertEquals(255, read.clockSize);
+        assertEquals(0, read.epochSize);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizesThatDontFit() {
+        new WatchFaceConfig.Builder().setClockSize(256);
+    }
+}
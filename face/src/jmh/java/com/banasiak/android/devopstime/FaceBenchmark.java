@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+// The per-frame work of the face that doesn't need Android: formatting the six lines for the
+// next tick, measuring the ones that changed and laying them out. Text is measured with a
+// fixed advance per char instead of a Paint, which is enough to drive the layout the same way.
+// Run with ./gradlew :face:jmh
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FaceBenchmark {
+
+    private static final String EPOCH_LABEL = "Epoch:";
+
+    // 2015-12-13T09:06:40Z
+    private static final long START_MS = 1450000000000L;
+
+    private static final long TICK_MS = 1000;
+
+    // how many ticks apart the interactive timestamp zone is toggled, as if tapped
+    private static final int TAP_INTERVAL = 64;
+
+    private static final float DENSITY = 2f;
+
+    // dimens.xml, in sp
+    private static final float X_OFFSET = 10;
+
+    private static final float Y_OFFSET = 10;
+
+    private static final float Y_OFFSET_ROUND = 30;
+
+    private static final float PADDING = 5;
+
+    private static final int WIDTH = 320;
+
+    // clock, period, time zone, datestamp, timestamp and epoch sizes, in the order of the
+    // TimeFormatter line bits; the WatchFaceUtil defaults and the bounds of the picker
+    private static final int[] DEFAULT_SIZES = {50, 16, 16, 18, 18, 18};
+
+    private static final int[] MIN_SIZES = {0, 0, 0, 0, 0, 0};
+
+    private static final int[] MAX_SIZES = {99, 99, 99, 99, 99, 99};
+
+    @Param({"false", "true"})
+    public boolean is24Hour;
+
+    @Param({"false", "true"})
+    public boolean isRound;
+
+    @Param({"local", "utc", "interactive"})
+    public String timestampZone;
+
+    @Param({"default", "min", "max"})
+    public String textSizes;
+
+    private final TimeZone mLocalZone = TimeZone.getTimeZone("America/Chicago");
+
+    private final TimeZone mUtcZone = TimeZone.getTimeZone("UTC");
+
+    private TimeFormatter mFormatter;
+
+    private FaceLayout mLayout;
+
+    private final TextLine[] mLines = new TextLine[6];
+
+    private final float[] mTextSizes = new float[6];
+
+    private long mTimeMs;
+
+    private int mTicks;
+
+    private boolean mTimestampUtc;
+
+    @Setup
+    public void setUp() {
+        mFormatter = new TimeFormatter(EPOCH_LABEL, is24Hour, Locale.US);
+        mFormatter.setTimeZone(mLocalZone);
+        mTimestampUtc = "utc".equals(timestampZone);
+        mFormatter.setTimestampTimeZone(mTimestampUtc ? mUtcZone : mLocalZone);
+
+        mLines[0] = mFormatter.clock;
+        mLines[1] = mFormatter.period;
+        mLines[2] = mFormatter.timezone;
+        mLines[3] = mFormatter.datestamp;
+        mLines[4] = mFormatter.timestamp;
+        mLines[5] = mFormatter.epoch;
+
+        int[] sizes = "min".equals(textSizes) ? MIN_SIZES
+                : "max".equals(textSizes) ? MAX_SIZES : DEFAULT_SIZES;
+        for (int i = 0; i < sizes.length; i++) {
+            mTextSizes[i] = sizes[i] * DENSITY;
+        }
+
+        mLayout = new FaceLayout();
+        mLayout.setSurface(isRound, WIDTH);
+        mLayout.setOffsets(X_OFFSET * DENSITY, (isRound ? Y_OFFSET_ROUND : Y_OFFSET) * DENSITY,
+                PADDING * DENSITY);
+        mTimeMs = START_MS;
+        frame();
+    }
+
+    // One interactive tick: everything onDraw does before it starts drawing.
+    @Benchmark
+    public float frame() {
+        if ("interactive".equals(timestampZone) && ++mTicks % TAP_INTERVAL == 0) {
+            mTimestampUtc = !mTimestampUtc;
+            mFormatter.setTimestampTimeZone(mTimestampUtc ? mUtcZone : mLocalZone);
+        }
+        mTimeMs += TICK_MS;
+        int changed = mFormatter.format(mTimeMs);
+        for (int i = 0; i < mLines.length; i++) {
+            if ((changed & (1 << i)) != 0) {
+                measure(1 << i, mLines[i], mTextSizes[i]);
+            }
+        }
+        mLayout.update();
+        return mLayout.yEpoch;
+    }
+
+    // Only the text, the formatter's share of frame().
+    @Benchmark
+    public int format() {
+        mTimeMs += TICK_MS;
+        return mFormatter.format(mTimeMs);
+    }
+
+    // The first frame after a time zone or config change, when every line is rewritten.
+    @Benchmark
+    public int formatAll() {
+        mTimeMs += TICK_MS;
+        mFormatter.invalidate();
+        return mFormatter.format(mTimeMs);
+    }
+
+    // Roughly what Paint.getTextBounds() reports for sans-serif: 0.55 em per char, cap
+    // height of 0.7 em.
+    private void measure(int line, TextLine text, float textSize) {
+        mLayout.setTextBounds(line, (int) (text.length * textSize * 0.55f),
+                (int) (textSize * 0.7f));
+    }
+}
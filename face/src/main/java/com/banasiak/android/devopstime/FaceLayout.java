@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+// Positions the six lines of the watch face. The result is memoized: update() only redoes the
+// math when the surface, the offsets or the measured size of a line actually changed, which at
+// one frame a second is almost never.
+final class FaceLayout {
+
+    float xClock, yClock;
+
+    float xPeriod, yPeriod;
+
+    float xTimezone, yTimezone;
+
+    float xDatestamp, yDatestamp;
+
+    float xTimestamp, yTimestamp;
+
+    float xEpoch, yEpoch;
+
+    private boolean mIsRound;
+
+    private int mWidth;
+
+    private float mXOffset;
+
+    private float mYOffset;
+
+    private float mPadding;
+
+    // measured text bounds, indexed by the line's bit position in TimeFormatter
+    private final int[] mTextWidths = new int[Integer.bitCount(TimeFormatter.ALL)];
+
+    private final int[] mTextHeights = new int[Integer.bitCount(TimeFormatter.ALL)];
+
+    private boolean mDirty = true;
+
+    void setSurface(boolean isRound, int width) {
+        if (isRound != mIsRound || width != mWidth) {
+            mIsRound = isRound;
+            mWidth = width;
+            mDirty = true;
+        }
+    }
+
+    void setOffsets(float xOffset, float yOffset, float padding) {
+        if (xOffset != mXOffset || yOffset != mYOffset || padding != mPadding) {
+            mXOffset = xOffset;
+            mYOffset = yOffset;
+            mPadding = padding;
+            mDirty = true;
+        }
+    }
+
+    // Sets the measured text bounds of one line, identified by its TimeFormatter bit.
+    void setTextBounds(int line, int width, int height) {
+        int index = Integer.numberOfTrailingZeros(line);
+        if (width != mTextWidths[index] || height != mTextHeights[index]) {
+            mTextWidths[index] = width;
+            mTextHeights[index] = height;
+            mDirty = true;
+        }
+    }
+
+    // Recalculates the positions if any input changed. Returns whether they were recalculated.
+    boolean update() {
+        if (!mDirty) {
+            return false;
+        }
+        mDirty = false;
+
+        int width = mWidth;
+        int clockWidth = textWidth(TimeFormatter.CLOCK);
+        int clockHeight = textHeight(TimeFormatter.CLOCK);
+        int periodWidth = textWidth(TimeFormatter.PERIOD);
+        int periodHeight = textHeight(TimeFormatter.PERIOD);
+        int timezoneWidth = textWidth(TimeFormatter.TIMEZONE);
+        int timezoneHeight = textHeight(TimeFormatter.TIMEZONE);
+        int datestampHeight = textHeight(TimeFormatter.DATESTAMP);
+        int timestampHeight = textHeight(TimeFormatter.TIMESTAMP);
+        int epochHeight = textHeight(TimeFormatter.EPOCH);
+
+        // the period and time zone are stacked to the right of the clock, vertically centered
+        // on its upper and lower half respectively
+        yPeriod = 0 + mYOffset + clockHeight / 2 - ((clockHeight / 2 - periodHeight) / 2);
+        yTimezone = 0 + mYOffset + clockHeight / 2 + ((clockHeight / 2 - timezoneHeight) / 2)
+                + timezoneHeight;
+        yClock = 0 + mYOffset + clockHeight;
+
+        if (mIsRound) {
+            // round offsets == align center
+            xClock = (width / 2) - (Math.max(periodWidth, timezoneWidth) / 2);
+            xPeriod = xClock + clockWidth / 2 + mPadding + periodWidth / 2;
+            xTimezone = xClock + clockWidth / 2 + mPadding + timezoneWidth / 2;
+
+            xDatestamp = width / 2;
+            yDatestamp = yClock + mPadding + datestampHeight;
+
+            xTimestamp = width / 2;
+            yTimestamp = yDatestamp + mPadding + timestampHeight;
+
+            xEpoch = width / 2;
+            yEpoch = yTimestamp + mPadding * 2 + epochHeight;
+        } else {
+            // square offsets == align right
+            xPeriod = width - mXOffset;
+            xTimezone = width - mXOffset;
+            xClock = xTimezone - mPadding - Math.max(periodWidth, timezoneWidth);
+
+            xDatestamp = width - mXOffset;
+            yDatestamp = yClock + mPadding + datestampHeight;
+
+            xTimestamp = width - mXOffset;
+            yTimestamp = yDatestamp + mPadding + timestampHeight;
+
+            xEpoch = width - mXOffset;
+            yEpoch = yTimestamp + mPadding * 3 + epochHeight;
+        }
+        return true;
+    }
+
+    private int textWidth(int line) {
+        return mTextWidths[Integer.numberOfTrailingZeros(line)];
+    }
+
+    private int textHeight(int line) {
+        return mTextHeights[Integer.numberOfTrailingZeros(line)];
+    }
+}
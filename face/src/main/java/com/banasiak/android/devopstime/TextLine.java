@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+// A reusable line of text backed by a preallocated char buffer. The watch face draws from these
+// instead of Strings so that producing a frame doesn't allocate.
+final class TextLine {
+
+    char[] chars;
+
+    int length;
+
+    TextLine(int capacity) {
+        chars = new char[capacity];
+    }
+
+    // Grows the buffer if needed. Only call this outside of the frame path, e.g. when the locale
+    // or time zone changes.
+    void ensureCapacity(int capacity) {
+        if (chars.length < capacity) {
+            char[] grown = new char[capacity];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+    }
+
+    void set(String text) {
+        ensureCapacity(text.length());
+        text.getChars(0, text.length(), chars, 0);
+        length = text.length();
+    }
+
+    void set(TextLine line) {
+        ensureCapacity(line.length);
+        System.arraycopy(line.chars, 0, chars, 0, line.length);
+        length = line.length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+// Produces the six lines of the watch face into preallocated TextLines. The output matches what
+// SimpleDateFormat produces for the face's patterns, but once constructed format() doesn't
+// allocate, so it is safe to call on every frame.
+//
+// Civil fields are computed directly from epoch millis and the zone offset, once per frame, and
+// only the characters whose field changed since the previous call are rewritten. At one frame
+// a second that is usually just the last digit of the seconds and of the epoch. The offsets
+// come from a ZoneOffsetCache per zone, the zone's rules are only consulted again at its next
+// transition.
+final class TimeFormatter {
+
+    static final String TIME_FORMAT_12 = "h:mm";
+
+    static final String TIME_FORMAT_24 = "H:mm";
+
+    static final String PERIOD_FORMAT = "a";
+
+    static final String TIMEZONE_FORMAT = "zzz";
+
+    static final String DATESTAMP_FORMAT = "EEE, dd MMM yyyy";
+
+    static final String TIMESTAMP_FORMAT = "HH:mm:ss Z";
+
+    // Bits returned by format() for the lines whose text changed.
+    static final int CLOCK = 1;
+
+    static final int PERIOD = 1 << 1;
+
+    static final int TIMEZONE = 1 << 2;
+
+    static final int DATESTAMP = 1 << 3;
+
+    static final int TIMESTAMP = 1 << 4;
+
+    static final int EPOCH = 1 << 5;
+
+    static final int ALL = CLOCK | PERIOD | TIMEZONE | DATESTAMP | TIMESTAMP | EPOCH;
+
+    private static final long MS_PER_SECOND = 1000;
+
+    private static final long MS_PER_MINUTE = 60 * MS_PER_SECOND;
+
+    private static final long MS_PER_HOUR = 60 * MS_PER_MINUTE;
+
+    private static final long MS_PER_DAY = 24 * MS_PER_HOUR;
+
+    // "HH:mm:ss Z", e.g. "13:37:00 -0500"
+    private static final int TIMESTAMP_LENGTH = 14;
+
+    // Long.MAX_VALUE / 1000 has 16 digits, leave some headroom
+    private static final int EPOCH_MAX_DIGITS = 19;
+
+    // marks a cached field as unknown so the next format() rewrites it
+    private static final int UNSET = -1;
+
+    final TextLine clock = new TextLine(5);
+
+    final TextLine period = new TextLine(2);
+
+    final TextLine timezone = new TextLine(8);
+
+    final TextLine datestamp = new TextLine(16);
+
+    final TextLine timestamp = new TextLine(TIMESTAMP_LENGTH);
+
+    final TextLine epoch;
+
+    private final Locale mLocale;
+
+    private final boolean mIs24Hour;
+
+    private final String[] mAmPmStrings;
+
+    private final String[] mShortWeekdays;
+
+    private final String[] mShortMonths;
+
+    private final char mZeroDigit;
+
+    private final int mEpochDigitsStart;
+
+    // only used for the daylight time check when the local offset changes, the same check
+    // SimpleDateFormat does for "zzz"
+    private final Calendar mCalendar;
+
+    private ZoneOffsetCache mLocalOffsets;
+
+    // mLocalOffsets if the timestamp is in the local zone, else mOtherOffsets
+    private ZoneOffsetCache mTimestampOffsets;
+
+    // kept while the timestamp switches back and forth between it and the local zone
+    private ZoneOffsetCache mOtherOffsets;
+
+    private String mStandardName;
+
+    private String mDaylightName;
+
+    // the fields as of the previous format() call
+    private int mLocalOffset;
+
+    private int mDaylight;
+
+    private long mLocalDay;
+
+    private int mHour;
+
+    private int mMinute;
+
+    private int mTimestampOffset;
+
+    private int mTimestampHour;
+
+    private int mTimestampMinute;
+
+    private int mTimestampSecond;
+
+    private long mEpochSeconds;
+
+    TimeFormatter(String epochLabel, boolean is24Hour, Locale locale) {
+        mLocale = locale;
+        mIs24Hour = is24Hour;
+
+        DateFormatSymbols symbols = DateFormatSymbols.getInstance(locale);
+        mAmPmStrings = symbols.getAmPmStrings();
+        mShortWeekdays = symbols.getShortWeekdays();
+        mShortMonths = symbols.getShortMonths();
+        mZeroDigit = DecimalFormatSymbols.getInstance(locale).getZeroDigit();
+        mCalendar = Calendar.getInstance(locale);
+
+        period.ensureCapacity(maxLength(mAmPmStrings));
+        // "EEE, dd MMM yyyy"
+        datestamp.ensureCapacity(maxLength(mShortWeekdays) + maxLength(mShortMonths) + 12);
+
+        // the separators never move, only the digits around them are rewritten
+        timestamp.chars[2] = ':';
+        timestamp.chars[5] = ':';
+        timestamp.chars[8] = ' ';
+        timestamp.length = TIMESTAMP_LENGTH;
+
+        // likewise the label, only the digits after it are rewritten
+        epoch = new TextLine(epochLabel.length() + 1 + EPOCH_MAX_DIGITS);
+        epoch.set(epochLabel);
+        epoch.chars[epoch.length++] = ' ';
+        mEpochDigitsStart = epoch.length;
+
+        setTimeZone(TimeZone.getDefault());
+        setTimestampTimeZone(TimeZone.getDefault());
+    }
+
+    // Sets the zone used for the clock, period, time zone and date lines. Its offsets are
+    // looked up afresh even if it is the same zone, its rules may have been updated.
+    void setTimeZone(TimeZone tz) {
+        boolean timestampWasLocal = mTimestampOffsets == mLocalOffsets;
+        mLocalOffsets = new ZoneOffsetCache(tz);
+        if (timestampWasLocal) {
+            mTimestampOffsets = mLocalOffsets;
+        }
+        mCalendar.setTimeZone(tz);
+        mStandardName = tz.getDisplayName(false, TimeZone.SHORT, mLocale);
+        mDaylightName = tz.getDisplayName(true, TimeZone.SHORT, mLocale);
+        timezone.ensureCapacity(Math.max(mStandardName.length(), mDaylightName.length()));
+        invalidate();
+    }
+
+    // Sets the zone used for the seconds-bearing timestamp line. Switching between the local
+    // zone and another one the timestamp was in before doesn't allocate.
+    void setTimestampTimeZone(TimeZone tz) {
+        if (mLocalOffsets.isFor(tz)) {
+            mTimestampOffsets = mLocalOffsets;
+        } else {
+            if (mOtherOffsets == null || !mOtherOffsets.isFor(tz)) {
+                mOtherOffsets = new ZoneOffsetCache(tz);
+            }
+            mTimestampOffsets = mOtherOffsets;
+        }
+        invalidate();
+    }
+
+    boolean is24Hour() {
+        return mIs24Hour;
+    }
+
+    // Forgets the previous frame so that the next format() rewrites every line.
+    void invalidate() {
+        mLocalOffset = Integer.MIN_VALUE;
+        mDaylight = UNSET;
+        mLocalDay = Long.MIN_VALUE;
+        mHour = UNSET;
+        mMinute = UNSET;
+        mTimestampOffset = Integer.MIN_VALUE;
+        mTimestampHour = UNSET;
+        mTimestampMinute = UNSET;
+        mTimestampSecond = UNSET;
+        mEpochSeconds = UNSET;
+    }
+
+    // Brings all lines up to date for timeMs and returns the bits of the lines that changed.
+    int format(long timeMs) {
+        int changed = 0;
+
+        int offset = mLocalOffsets.getOffset(timeMs);
+        long local = timeMs + offset;
+        long day = floorDiv(local, MS_PER_DAY);
+
+        // the same offset can be standard time in one year and daylight time in another, so
+        // check again on every new day too
+        if (offset != mLocalOffset || day != mLocalDay) {
+            mLocalOffset = offset;
+            mCalendar.setTimeInMillis(timeMs);
+            int daylight = mCalendar.get(Calendar.DST_OFFSET) != 0 ? 1 : 0;
+            if (daylight != mDaylight) {
+                // "zzz"
+                mDaylight = daylight;
+                timezone.length = appendString(timezone.chars, 0,
+                        daylight == 1 ? mDaylightName : mStandardName);
+                changed |= TIMEZONE;
+            }
+        }
+
+        int msOfDay = (int) (local - day * MS_PER_DAY);
+        int hour = (int) (msOfDay / MS_PER_HOUR);
+        int minute = (int) (msOfDay / MS_PER_MINUTE % 60);
+
+        if (hour != mHour) {
+            // "h:mm" or "H:mm", the hour may change width so rewrite the whole line
+            int displayHour = hour;
+            if (!mIs24Hour) {
+                displayHour = hour % 12 == 0 ? 12 : hour % 12;
+            }
+            int pos = appendNumber(clock.chars, 0, displayHour, 1);
+            clock.chars[pos++] = ':';
+            clock.length = appendNumber(clock.chars, pos, minute, 2);
+            changed |= CLOCK;
+
+            // "a"
+            if (mHour == UNSET || hour / 12 != mHour / 12) {
+                period.length = appendString(period.chars, 0, mAmPmStrings[hour / 12]);
+                changed |= PERIOD;
+            }
+            mHour = hour;
+            mMinute = minute;
+        } else if (minute != mMinute) {
+            updateTwoDigits(clock.chars, clock.length - 2, mMinute, minute);
+            mMinute = minute;
+            changed |= CLOCK;
+        }
+
+        if (day != mLocalDay) {
+            mLocalDay = day;
+            formatDatestamp(day);
+            changed |= DATESTAMP;
+        }
+
+        // "HH:mm:ss Z", usually in the same zone as the rest of the face
+        int timestampOffset = mTimestampOffsets == mLocalOffsets ? offset
+                : mTimestampOffsets.getOffset(timeMs);
+        int secondOfDay;
+        if (timestampOffset == offset) {
+            secondOfDay = (int) (msOfDay / MS_PER_SECOND);
+        } else {
+            long stamp = timeMs + timestampOffset;
+            secondOfDay = (int) ((stamp - floorDiv(stamp, MS_PER_DAY) * MS_PER_DAY)
+                    / MS_PER_SECOND);
+        }
+        int timestampHour = secondOfDay / 3600;
+        int timestampMinute = secondOfDay / 60 % 60;
+        int timestampSecond = secondOfDay % 60;
+        char[] time = timestamp.chars;
+        if (timestampSecond != mTimestampSecond) {
+            updateTwoDigits(time, 6, mTimestampSecond, timestampSecond);
+            mTimestampSecond = timestampSecond;
+            changed |= TIMESTAMP;
+        }
+        if (timestampMinute != mTimestampMinute) {
+            updateTwoDigits(time, 3, mTimestampMinute, timestampMinute);
+            mTimestampMinute = timestampMinute;
+            changed |= TIMESTAMP;
+        }
+        if (timestampHour != mTimestampHour) {
+            updateTwoDigits(time, 0, mTimestampHour, timestampHour);
+            mTimestampHour = timestampHour;
+            changed |= TIMESTAMP;
+        }
+        if (timestampOffset != mTimestampOffset) {
+            mTimestampOffset = timestampOffset;
+            int offsetMinutes = (int) (timestampOffset / MS_PER_MINUTE);
+            if (offsetMinutes < 0) {
+                time[9] = '-';
+                offsetMinutes = -offsetMinutes;
+            } else {
+                time[9] = '+';
+            }
+            appendNumber(time, 10, (offsetMinutes / 60) * 100 + offsetMinutes % 60, 4);
+            changed |= TIMESTAMP;
+        }
+
+        // "Epoch: 1450000000", always ASCII digits like String.valueOf()
+        long epochSeconds = timeMs / MS_PER_SECOND;
+        if (epochSeconds != mEpochSeconds) {
+            updateEpoch(epochSeconds);
+            mEpochSeconds = epochSeconds;
+            changed |= EPOCH;
+        }
+
+        return changed;
+    }
+
+    // The first instant after timeMs at which the text of any of the given lines changes. The
+    // timestamp and epoch change on every second, the other lines on local minute boundaries,
+    // which is also where time zone transitions fall.
+    long nextChange(long timeMs, int lines) {
+        if ((lines & (TIMESTAMP | EPOCH)) != 0) {
+            return (floorDiv(timeMs, MS_PER_SECOND) + 1) * MS_PER_SECOND;
+        }
+        long local = timeMs + mLocalOffsets.getOffset(timeMs);
+        return timeMs + MS_PER_MINUTE - (local - floorDiv(local, MS_PER_MINUTE) * MS_PER_MINUTE);
+    }
+
+    // "EEE, dd MMM yyyy"
+    private void formatDatestamp(long epochDay) {
+        // civil date from days since 1970-01-01, see
+        // http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+        long z = epochDay + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra =
+                (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 2 : mp - 10; // 0 based like Calendar.MONTH
+        int year = (int) (yearOfEra + era * 400) + (month <= 1 ? 1 : 0);
+        // 1970-01-01 was a Thursday, Calendar.SUNDAY == 1
+        int dayOfWeek = (int) (epochDay + 4 - floorDiv(epochDay + 4, 7) * 7) + 1;
+
+        char[] date = datestamp.chars;
+        int pos = appendString(date, 0, mShortWeekdays[dayOfWeek]);
+        date[pos++] = ',';
+        date[pos++] = ' ';
+        pos = appendNumber(date, pos, dayOfMonth, 2);
+        date[pos++] = ' ';
+        pos = appendString(date, pos, mShortMonths[month]);
+        date[pos++] = ' ';
+        datestamp.length = appendNumber(date, pos, year, 4);
+    }
+
+    // Rewrites only the trailing digits that differ from the previous value.
+    private void updateEpoch(long seconds) {
+        long previous = mEpochSeconds;
+        if (previous < 0 || digitCount(previous) != digitCount(seconds)) {
+            epoch.length = appendAsciiNumber(epoch.chars, mEpochDigitsStart, seconds);
+            return;
+        }
+        char[] chars = epoch.chars;
+        for (int i = epoch.length - 1; seconds != previous; i--) {
+            int digit = (int) (seconds % 10);
+            if (digit != previous % 10) {
+                chars[i] = (char) ('0' + digit);
+            }
+            seconds /= 10;
+            previous /= 10;
+        }
+    }
+
+    // Rewrites the two zero padded digits at pos, skipping the tens if they didn't change.
+    private void updateTwoDigits(char[] buffer, int pos, int previous, int value) {
+        if (previous == UNSET || previous / 10 != value / 10) {
+            buffer[pos] = (char) (mZeroDigit + value / 10);
+        }
+        buffer[pos + 1] = (char) (mZeroDigit + value % 10);
+    }
+
+    // Writes value in the locale's digits, zero padded to at least minDigits.
+    private int appendNumber(char[] buffer, int pos, int value, int minDigits) {
+        int digits = Math.max(digitCount(value), minDigits);
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buffer[i] = (char) (mZeroDigit + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static int appendAsciiNumber(char[] buffer, int pos, long value) {
+        int digits = digitCount(value);
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static int appendString(char[] buffer, int pos, String text) {
+        text.getChars(0, text.length(), buffer, pos);
+        return pos + text.length();
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if (x % y != 0 && (x ^ y) < 0) {
+            q--;
+        }
+        return q;
+    }
+
+    private static int maxLength(String[] strings) {
+        int max = 0;
+        for (String s : strings) {
+            max = Math.max(max, s.length());
+        }
+        return max;
+    }
+}
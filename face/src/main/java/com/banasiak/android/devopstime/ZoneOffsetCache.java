@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.util.TimeZone;
+
+// The offset of one zone from UTC by plain arithmetic. TimeZone.getOffset() goes through the
+// zone's rules on every call, this only does when the time leaves the window the offset is
+// known for: between the zone's transitions before and after the instant looked up then, at
+// most MAX_WINDOW_MS either way, so that looking up a moment earlier, e.g. now after the next
+// tick, doesn't start over. The transitions are found by probing every PROBE_STEP_MS and
+// bisecting the step they fall into, a few dozen lookups about once a week. Doesn't allocate.
+final class ZoneOffsetCache {
+
+    // zones change their offset a few times a year at most, two transitions within one step
+    // would go unnoticed
+    private static final long PROBE_STEP_MS = 24 * 60 * 60 * 1000L;
+
+    private static final long MAX_WINDOW_MS = 7 * PROBE_STEP_MS;
+
+    final TimeZone zone;
+
+    private int mOffset;
+
+    // the window mOffset holds for, [mStartMs, mEndMs), empty until the first lookup
+    private long mStartMs = Long.MAX_VALUE;
+
+    private long mEndMs = Long.MIN_VALUE;
+
+    ZoneOffsetCache(TimeZone zone) {
+        this.zone = zone;
+    }
+
+    // Same as zone.getOffset(timeMs).
+    int getOffset(long timeMs) {
+        if (timeMs < mStartMs || timeMs >= mEndMs) {
+            rebuild(timeMs);
+        }
+        return mOffset;
+    }
+
+    // Whether tz has the same offsets as this cache's zone, e.g. another instance of it.
+    boolean isFor(TimeZone tz) {
+        return tz == zone || tz.getID().equals(zone.getID()) && tz.hasSameRules(zone);
+    }
+
+    private void rebuild(long timeMs) {
+        int offset = zone.getOffset(timeMs);
+        long earliest = timeMs >= Long.MIN_VALUE + MAX_WINDOW_MS ? timeMs - MAX_WINDOW_MS
+                : Long.MIN_VALUE;
+        // one short of the maximum, mEndMs is exclusive
+        long latest = timeMs < Long.MAX_VALUE - MAX_WINDOW_MS ? timeMs + MAX_WINDOW_MS
+                : Long.MAX_VALUE - 1;
+        mOffset = offset;
+        mStartMs = lastWithOffset(timeMs, earliest, -PROBE_STEP_MS, offset);
+        mEndMs = lastWithOffset(timeMs, latest, PROBE_STEP_MS, offset) + 1;
+    }
+
+    // The instant furthest from timeMs in the direction of step, up to limit, that has the
+    // zone's offset throughout from timeMs, which has it.
+    private long lastWithOffset(long timeMs, long limit, long step, int offset) {
+        long same = timeMs;
+        while (same != limit) {
+            long probe = step > 0 ? Math.min(same + step, limit) : Math.max(same + step, limit);
+            if (zone.getOffset(probe) != offset) {
+                while (Math.abs(probe - same) > 1) {
+                    long middle = same + (probe - same) / 2;
+                    if (zone.getOffset(middle) == offset) {
+                        same = middle;
+                    } else {
+                        probe = middle;
+                    }
+                }
+                return same;
+            }
+            same = probe;
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeFormatterTest {
+
+    private static final String EPOCH_LABEL = "Epoch:";
+
+    // 2015-12-13T09:06:40Z
+    private static final long START_MS = 1450000000000L;
+
+    @Test
+    public void formatDoesNotAllocateInSteadyState() {
+        TimeFormatter formatter = new TimeFormatter(EPOCH_LABEL, false, Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("America/Chicago"));
+        formatter.setTimestampTimeZone(TimeZone.getTimeZone("UTC"));
+
+        // warm up so that lazily initialized calendar state and JIT don't count
+        long time = START_MS;
+        for (int i = 0; i < 20000; i++) {
+            formatter.format(time);
+            time += 500;
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // the bean call itself may allocate, measure that first and subtract it
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 10000; i++) {
+            formatter.format(time);
+            time += 500;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals("bytes allocated by 10000 frames", 0, allocated);
+    }
+
+    @Test
+    public void formatMatchesSimpleDateFormat() {
+        TimeZone tz = TimeZone.getTimeZone("America/Chicago");
+        // every 7 minutes and 13 seconds for a couple of days
+        for (boolean is24Hour : new boolean[]{false, true}) {
+            assertMatches(tz, tz, is24Hour, START_MS, START_MS + 2 * 86400000L, 433000);
+        }
+    }
+
+    @Test
+    public void formatMatchesSimpleDateFormatAcrossDstTransitions() {
+        String[] zones = {"America/Chicago", "Europe/London", "Australia/Lord_Howe",
+                "Asia/Kolkata", "Pacific/Chatham"};
+        // two hours around a few spring forward and fall back instants
+        long[] transitions = {
+                1425801600000L, // 2015-03-08 08:00 UTC, US spring forward
+                1446364800000L, // 2015-11-01 08:00 UTC, US fall back
+                1427590800000L, // 2015-03-29 01:00 UTC, EU spring forward
+                1445734800000L, // 2015-10-25 01:00 UTC, EU fall back
+                1428159600000L, // 2015-04-04 15:00 UTC, Lord Howe fall back by 30 minutes
+                1443884400000L, // 2015-10-03 15:00 UTC, Lord Howe spring forward by 30 minutes
+        };
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        for (String zone : zones) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            for (long transition : transitions) {
+                for (boolean is24Hour : new boolean[]{false, true}) {
+                    // a few ticks per second, once with a local and once with a UTC timestamp
+                    assertMatches(tz, tz, is24Hour, transition - 3600000L, transition + 3600000L,
+                            1500);
+                    assertMatches(tz, utc, is24Hour, transition - 3600000L, transition + 3600000L,
+                            1500);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void formatMatchesSimpleDateFormatAfterJumps() {
+        TimeZone tz = TimeZone.getTimeZone("Europe/London");
+        TimeFormatter formatter = new TimeFormatter(EPOCH_LABEL, false, Locale.US);
+        formatter.setTimeZone(tz);
+        formatter.setTimestampTimeZone(tz);
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // anywhere between 1970 and 2100, including going backwards
+            long time = (long) (random.nextDouble() * 4102444800000L);
+            formatter.format(time);
+            assertLines(formatter, tz, tz, false, time);
+        }
+    }
+
+    @Test
+    public void nextChangeIsWhenTheTextChanges() {
+        String[] zones = {"America/Chicago", "Asia/Kolkata", "Asia/Kathmandu"};
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        for (String zone : zones) {
+            TimeZone tz = TimeZone.getTimeZone(zone);
+            TimeFormatter formatter = new TimeFormatter(EPOCH_LABEL, false, Locale.US);
+            formatter.setTimeZone(tz);
+            formatter.setTimestampTimeZone(utc);
+            // across the US fall back, every 7.3 seconds
+            for (long time = 1446364800000L - 3600000L; time < 1446364800000L + 3600000L;
+                    time += 7300) {
+                assertNextChange(formatter, time, TimeFormatter.ALL);
+                assertNextChange(formatter, time, TimeFormatter.CLOCK | TimeFormatter.DATESTAMP);
+            }
+        }
+    }
+
+    // Nothing in lines changes between time and nextChange(), and something does at it.
+    private static void assertNextChange(TimeFormatter formatter, long time, int lines) {
+        long next = formatter.nextChange(time, lines);
+        formatter.format(time);
+        String at = formatter.timezone + " @ " + time;
+        assertEquals(at, 0, formatter.format(next - 1) & lines);
+        assertTrue(at, (formatter.format(next) & lines) != 0);
+    }
+
+    private static void assertMatches(TimeZone tz, TimeZone timestampTz, boolean is24Hour,
+            long fromMs, long toMs, long stepMs) {
+        TimeFormatter formatter = new TimeFormatter(EPOCH_LABEL, is24Hour, Locale.US);
+        formatter.setTimeZone(tz);
+        formatter.setTimestampTimeZone(timestampTz);
+        for (long time = fromMs; time < toMs; time += stepMs) {
+            formatter.format(time);
+            assertLines(formatter, tz, timestampTz, is24Hour, time);
+        }
+    }
+
+    private static void assertLines(TimeFormatter formatter, TimeZone tz, TimeZone timestampTz,
+            boolean is24Hour, long time) {
+        Date date = new Date(time);
+        String clockPattern =
+                is24Hour ? TimeFormatter.TIME_FORMAT_24 : TimeFormatter.TIME_FORMAT_12;
+        String at = tz.getID() + " @ " + time;
+        assertEquals(at, format(clockPattern, tz, date), formatter.clock.toString());
+        assertEquals(at, format(TimeFormatter.PERIOD_FORMAT, tz, date),
+                formatter.period.toString());
+        assertEquals(at, format(TimeFormatter.TIMEZONE_FORMAT, tz, date),
+                formatter.timezone.toString());
+        assertEquals(at, format(TimeFormatter.DATESTAMP_FORMAT, tz, date),
+                formatter.datestamp.toString());
+        assertEquals(at, format(TimeFormatter.TIMESTAMP_FORMAT, timestampTz, date),
+                formatter.timestamp.toString());
+        assertEquals(at, EPOCH_LABEL + " " + String.valueOf(time / 1000),
+                formatter.epoch.toString());
+    }
+
+    private static String format(String pattern, TimeZone tz, Date date) {
+        SimpleDateFormat sdf = new SimpleDateFormat(pattern, Locale.US);
+        sdf.setTimeZone(tz);
+        return sdf.format(date);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZoneOffsetCacheTest {
+
+    private static final String[] ZONES = {"UTC", "America/Chicago", "Europe/London",
+            "Australia/Lord_Howe", "Asia/Kolkata", "Pacific/Chatham"};
+
+    // 2015-01-01T00:00:00Z
+    private static final long YEAR_START_MS = 1420070400000L;
+
+    @Test
+    public void matchesTheZoneThroughAYear() {
+        for (String id : ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            ZoneOffsetCache cache = new ZoneOffsetCache(tz);
+            // transitions fall on quarter hours, so this hits both sides of every one
+            for (long time = YEAR_START_MS; time < YEAR_START_MS + 366 * 86400000L;
+                    time += 15 * 60000) {
+                assertEquals(id + " at " + time, tz.getOffset(time), cache.getOffset(time));
+            }
+        }
+    }
+
+    @Test
+    public void transitionsAreExactToTheMillisecond() {
+        TimeZone tz = TimeZone.getTimeZone("America/Chicago");
+        ZoneOffsetCache cache = new ZoneOffsetCache(tz);
+        // 2015-03-08 08:00 UTC, US spring forward
+        long transition = 1425801600000L;
+        cache.getOffset(transition - 86400000L);
+        assertEquals(tz.getOffset(transition - 1), cache.getOffset(transition - 1));
+        assertEquals(tz.getOffset(transition), cache.getOffset(transition));
+    }
+
+    @Test
+    public void earlierLookupWithinTheWindowUsesTheCache() {
+        CountingZone tz = new CountingZone(TimeZone.getTimeZone("America/Chicago"));
+        ZoneOffsetCache cache = new ZoneOffsetCache(tz);
+        // 2015-03-08 08:00 UTC, US spring forward
+        long transition = 1425801600000L;
+        cache.getOffset(transition + 3600000L);
+        tz.lookups = 0;
+
+        // e.g. a model for right now after the one for the next tick
+        assertEquals(tz.getOffset(transition), cache.getOffset(transition));
+        assertEquals(tz.getOffset(transition + 86400000L),
+                cache.getOffset(transition + 86400000L));
+        // only the assertions' own
+        assertEquals(2, tz.lookups);
+        // before the transition is outside the window
+        assertEquals(tz.getOffset(transition - 1), cache.getOffset(transition - 1));
+        assertTrue(tz.lookups > 3);
+    }
+
+    @Test
+    public void matchesTheZoneAfterJumps() {
+        Random random = new Random(42);
+        for (String id : ZONES) {
+            TimeZone tz = TimeZone.getTimeZone(id);
+            ZoneOffsetCache cache = new ZoneOffsetCache(tz);
+            for (int i = 0; i < 2000; i++) {
+                // back and forth within a few years around 2015
+                long time = YEAR_START_MS + (long) (random.nextDouble() * 3 * 365 * 86400000L);
+                assertEquals(id + " at " + time, tz.getOffset(time), cache.getOffset(time));
+            }
+        }
+    }
+
+    @Test
+    public void isForOtherInstancesOfTheZone() {
+        ZoneOffsetCache cache = new ZoneOffsetCache(TimeZone.getTimeZone("Europe/London"));
+        assertTrue(cache.isFor(cache.zone));
+        assertTrue(cache.isFor(TimeZone.getTimeZone("Europe/London")));
+        assertFalse(cache.isFor(TimeZone.getTimeZone("UTC")));
+    }
+
+    // Counts the offset lookups, otherwise the zone it wraps.
+    private static final class CountingZone extends TimeZone {
+
+        private final TimeZone mZone;
+
+        int lookups;
+
+        CountingZone(TimeZone zone) {
+            mZone = zone;
+            setID(zone.getID());
+        }
+
+        @Override
+        public int getOffset(long date) {
+            lookups++;
+            return mZone.getOffset(date);
+        }
+
+        @Override
+        public int getOffset(int era, int year, int month, int day, int dayOfWeek,
+                int milliseconds) {
+            return mZone.getOffset(era, year, month, day, dayOfWeek, milliseconds);
+        }
+
+        @Override
+        public void setRawOffset(int offsetMillis) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getRawOffset() {
+            return mZone.getRawOffset();
+        }
+
+        @Override
+        public boolean useDaylightTime() {
+            return mZone.useDaylightTime();
+        }
+
+        @Override
+        public boolean inDaylightTime(Date date) {
+            return mZone.inDaylightTime(date);
+        }
+    }
+}
@@ -19,17 +19,19 @@ package com.banasiak.android.devopstime;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Wearable;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -72,6 +74,8 @@ public class CompanionActivity extends Activity {
 
     private GoogleApiClient googleApiClient = null;
 
+    private ConfigSync configSync = null;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -179,72 +183,48 @@ public class CompanionActivity extends Activity {
         alertDialog.show();
     }
 
+    // The config as currently entered.
+    private WatchFaceConfig getValues() {
+        return new WatchFaceConfig.Builder()
+                .setClockSize(Integer.parseInt(clockSizeEditText.getText().toString()))
+                .setMarkerSize(Integer.parseInt(markerSizeEditText.getText().toString()))
+                .setTzSize(Integer.parseInt(tzSizeEditText.getText().toString()))
+                .setDateSize(Integer.parseInt(dateSizeEditText.getText().toString()))
+                .setTimeSize(Integer.parseInt(timeSizeEditText.getText().toString()))
+                .setEpochSize(Integer.parseInt(epochSizeEditText.getText().toString()))
+                .setClockDim(clockCheckBox.isChecked())
+                .setMarkerDim(markerCheckBox.isChecked())
+                .setTzDim(tzCheckBox.isChecked())
+                .setDateDim(dateCheckBox.isChecked())
+                .setTimeDim(timeCheckBox.isChecked())
+                .setEpochDim(epochCheckBox.isChecked())
+                .setUseShortCards(useShortCardsCheckBox.isChecked())
+                .setTimestampTz(timestampTzSpinner.getSelectedItemPosition())
+                .build();
+    }
+
     private void saveValues() {
-        CompanionSettings.setInt(this, CompanionSettings.KEY_CLOCK_SIZE,
-                Integer.parseInt(clockSizeEditText.getText().toString()));
-        CompanionSettings.setInt(this, CompanionSettings.KEY_MARKER_SIZE,
-                Integer.parseInt(markerSizeEditText.getText().toString()));
-        CompanionSettings.setInt(this, CompanionSettings.KEY_TZ_SIZE,
-                Integer.parseInt(tzSizeEditText.getText().toString()));
-        CompanionSettings.setInt(this, CompanionSettings.KEY_DATE_SIZE,
-                Integer.parseInt(dateSizeEditText.getText().toString()));
-        CompanionSettings.setInt(this, CompanionSettings.KEY_TIME_SIZE,
-                Integer.parseInt(timeSizeEditText.getText().toString()));
-        CompanionSettings.setInt(this, CompanionSettings.KEY_EPOCH_SIZE,
-                Integer.parseInt(epochSizeEditText.getText().toString()));
-
-        CompanionSettings
-                .setBoolean(this, CompanionSettings.KEY_CLOCK_DIM, clockCheckBox.isChecked());
-        CompanionSettings
-                .setBoolean(this, CompanionSettings.KEY_MARKER_DIM, markerCheckBox.isChecked());
-        CompanionSettings.setBoolean(this, CompanionSettings.KEY_TZ_DIM, tzCheckBox.isChecked());
-        CompanionSettings
-                .setBoolean(this, CompanionSettings.KEY_DATE_DIM, dateCheckBox.isChecked());
-        CompanionSettings
-                .setBoolean(this, CompanionSettings.KEY_TIME_DIM, timeCheckBox.isChecked());
-        CompanionSettings.setBoolean(this, CompanionSettings.KEY_EPOCH_DIM,
-                epochCheckBox.isChecked());
-        CompanionSettings.setBoolean(this, CompanionSettings.KEY_USE_SHORT_CARDS,
-                useShortCardsCheckBox.isChecked());
-
-        CompanionSettings.setInt(this, CompanionSettings.KEY_TIME_TZ,
-                timestampTzSpinner.getSelectedItemPosition());
+        CompanionSettings.writeConfig(this, getValues());
     }
 
     private void loadValues() {
-        clockSizeEditText.setText(String.valueOf(CompanionSettings
-                .getInt(this, CompanionSettings.KEY_CLOCK_SIZE,
-                        CompanionSettings.KEY_CLOCK_SIZE_DEF)));
-        markerSizeEditText.setText(String.valueOf(CompanionSettings
-                .getInt(this, CompanionSettings.KEY_MARKER_SIZE,
-                        CompanionSettings.KEY_MARKER_SIZE_DEF)));
-        tzSizeEditText.setText(String.valueOf(CompanionSettings.getInt(this,
-                CompanionSettings.KEY_TZ_SIZE, CompanionSettings.KEY_TZ_SIZE_DEF)));
-        dateSizeEditText.setText(String.valueOf(CompanionSettings.getInt(this,
-                CompanionSettings.KEY_DATE_SIZE, CompanionSettings.KEY_DATE_SIZE_DEF)));
-        timeSizeEditText.setText(String.valueOf(CompanionSettings.getInt(this,
-                CompanionSettings.KEY_TIME_SIZE, CompanionSettings.KEY_TIME_SIZE_DEF)));
-        epochSizeEditText.setText(String.valueOf(CompanionSettings
-                .getInt(this, CompanionSettings.KEY_EPOCH_SIZE,
-                        CompanionSettings.KEY_EPOCH_SIZE_DEF)));
-
-        clockCheckBox.setChecked(CompanionSettings.getBoolean(this, CompanionSettings.KEY_CLOCK_DIM,
-                CompanionSettings.KEY_CLOCK_DIM_DEF));
-        markerCheckBox.setChecked(CompanionSettings.getBoolean(this,
-                CompanionSettings.KEY_MARKER_DIM, CompanionSettings.KEY_MARKER_DIM_DEF));
-        tzCheckBox.setChecked(CompanionSettings.getBoolean(this, CompanionSettings.KEY_TZ_DIM,
-                CompanionSettings.KEY_TZ_DIM_DEF));
-        dateCheckBox.setChecked(CompanionSettings.getBoolean(this, CompanionSettings.KEY_DATE_DIM,
-                CompanionSettings.KEY_DATE_DIM_DEF));
-        timeCheckBox.setChecked(CompanionSettings.getBoolean(this, CompanionSettings.KEY_TIME_DIM,
-                CompanionSettings.KEY_TIME_DIM_DEF));
-        epochCheckBox.setChecked(CompanionSettings.getBoolean(this, CompanionSettings.KEY_EPOCH_DIM,
-                CompanionSettings.KEY_EPOCH_SHOW_DEF));
-        useShortCardsCheckBox.setChecked(CompanionSettings.getBoolean(this,
-                CompanionSettings.KEY_USE_SHORT_CARDS, CompanionSettings.KEY_USE_SHORT_CARDS_DEF));
-
-        timestampTzSpinner.setSelection(CompanionSettings
-                .getInt(this, CompanionSettings.KEY_TIME_TZ, CompanionSettings.KEY_TIME_TZ_DEF));
+        WatchFaceConfig config = CompanionSettings.readConfig(this);
+        clockSizeEditText.setText(String.valueOf(config.clockSize));
+        markerSizeEditText.setText(String.valueOf(config.markerSize));
+        tzSizeEditText.setText(String.valueOf(config.tzSize));
+        dateSizeEditText.setText(String.valueOf(config.dateSize));
+        timeSizeEditText.setText(String.valueOf(config.timeSize));
+        epochSizeEditText.setText(String.valueOf(config.epochSize));
+
+        clockCheckBox.setChecked(config.clockDim);
+        markerCheckBox.setChecked(config.markerDim);
+        tzCheckBox.setChecked(config.tzDim);
+        dateCheckBox.setChecked(config.dateDim);
+        timeCheckBox.setChecked(config.timeDim);
+        epochCheckBox.setChecked(config.epochDim);
+        useShortCardsCheckBox.setChecked(config.useShortCards);
+
+        timestampTzSpinner.setSelection(config.timestampTz);
     }
 
     private void resetValues() {
@@ -252,45 +232,38 @@ public class CompanionActivity extends Activity {
         loadValues();
     }
 
+    // Puts the config encoded as a whole, a few bytes instead of a DataMap entry per key, and
+    // only if the watches don't have it yet. Each push starts a trace, the watches time it
+    // until their first frame drawn with the config and report that in their render stats.
     private void pushValuesToWearable() {
-        int clockSize = Integer.parseInt(clockSizeEditText.getText().toString());
-        int markerSize = Integer.parseInt(markerSizeEditText.getText().toString());
-        int tzSize = Integer.parseInt(tzSizeEditText.getText().toString());
-        int dateSize = Integer.parseInt(dateSizeEditText.getText().toString());
-        int timeSize = Integer.parseInt(timeSizeEditText.getText().toString());
-        int epochSize = Integer.parseInt(epochSizeEditText.getText().toString());
-
-        boolean clockDim = clockCheckBox.isChecked();
-        boolean markerDim = markerCheckBox.isChecked();
-        boolean tzDim = tzCheckBox.isChecked();
-        boolean dateDim = dateCheckBox.isChecked();
-        boolean timeDim = timeCheckBox.isChecked();
-        boolean epochDim = epochCheckBox.isChecked();
-
-        boolean useShortCards = useShortCardsCheckBox.isChecked();
-
-        int timestampTz = timestampTzSpinner.getSelectedItemPosition();
-
-        PutDataMapRequest dataMap = PutDataMapRequest.create(CompanionSettings.PATH_WITH_FEATURE);
-
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_CLOCK_SIZE, clockSize);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_MARKER_SIZE, markerSize);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_TZ_SIZE, tzSize);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_DATE_SIZE, dateSize);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_TIME_SIZE, timeSize);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_EPOCH_SIZE, epochSize);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_CLOCK_DIM, clockDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_MARKER_DIM, markerDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_TZ_DIM, tzDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_DATE_DIM, dateDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_TIME_DIM, timeDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_EPOCH_DIM, epochDim);
-        dataMap.getDataMap().putBoolean(CompanionSettings.KEY_USE_SHORT_CARDS, useShortCards);
-        dataMap.getDataMap().putInt(CompanionSettings.KEY_TIME_TZ, timestampTz);
-
-        PutDataRequest request = dataMap.asPutDataRequest();
-        PendingResult<DataApi.DataItemResult> pendingResult = Wearable.DataApi
-                .putDataItem(googleApiClient, request);
+        if (configSync != null) {
+            configSync.push(getValues(), ConfigTrace.start());
+        }
+    }
+
+    // Logs the render time summaries the connected watches last sent.
+    private void logRenderStats() {
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(CompanionSettings.PATH_RENDER_STATS)
+                .build();
+        Wearable.DataApi.getDataItems(googleApiClient, uri).setResultCallback(
+                new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(@NonNull DataItemBuffer dataItems) {
+                        try {
+                            for (DataItem dataItem : dataItems) {
+                                String summary = DataMapItem.fromDataItem(dataItem).getDataMap()
+                                        .getString(CompanionSettings.KEY_RENDER_STATS_SUMMARY);
+                                Log.i(TAG, "render stats of " + dataItem.getUri().getHost()
+                                        + ":\n" + summary);
+                            }
+                        } finally {
+                            dataItems.release();
+                        }
+                    }
+                }
+        );
     }
 
     private void initializeWearable() {
@@ -301,7 +274,9 @@ public class CompanionActivity extends Activity {
                         @Override
                         public void onConnected(Bundle connectionHint) {
                             // Now you can use the data layer API
+                            configSync.load();
                             pushValuesToWearable();
+                            logRenderStats();
                         }
 
                         @Override
@@ -320,6 +295,7 @@ public class CompanionActivity extends Activity {
                     )
                     .addApi(Wearable.API)
                     .build();
+            configSync = new ConfigSync(new DataLayerConfigTransport(googleApiClient));
         }
     }
 }
@@ -38,91 +38,58 @@ public class CompanionSettings {
     }
 
     //Declare the constants
-    public static final int LOCAL = 0;
+    public static final int LOCAL = WatchFaceConfig.LOCAL;
 
-    public static final int UTC = 1;
+    public static final int UTC = WatchFaceConfig.UTC;
 
-    public static final int INTERACTIVE = 2;
-
-    public static final String KEY_CLOCK_SIZE = "clock_size";
-
-    public static final int KEY_CLOCK_SIZE_DEF = 50;
-
-    public static final String KEY_CLOCK_DIM = "clock_dim";
-
-    public static final boolean KEY_CLOCK_DIM_DEF = true;
-
-    public static final String KEY_MARKER_SIZE = "marker_size";
-
-    public static final int KEY_MARKER_SIZE_DEF = 16;
-
-    public static final String KEY_MARKER_DIM = "marker_dim";
-
-    public static final boolean KEY_MARKER_DIM_DEF = true;
-
-    public static final String KEY_TZ_SIZE = "tz_size";
-
-    public static final int KEY_TZ_SIZE_DEF = 16;
-
-    public static final String KEY_TZ_DIM = "tz_dim";
-
-    public static final boolean KEY_TZ_DIM_DEF = false;
-
-    public static final String KEY_DATE_SIZE = "date_size";
-
-    public static final int KEY_DATE_SIZE_DEF = 18;
-
-    public static final String KEY_DATE_DIM = "date_dim";
-
-    public static final boolean KEY_DATE_DIM_DEF = false;
-
-    public static final String KEY_TIME_SIZE = "time_size";
-
-    public static final int KEY_TIME_SIZE_DEF = 18;
-
-    public static final String KEY_TIME_DIM = "time_dim";
-
-    public static final boolean KEY_TIME_DIM_DEF = false;
-
-    public static final String KEY_EPOCH_SIZE = "epoch_size";
-
-    public static final int KEY_EPOCH_SIZE_DEF = 18;
-
-    public static final String KEY_EPOCH_DIM = "epoch_dim";
-
-    public static final boolean KEY_EPOCH_SHOW_DEF = false;
-
-    public static final String KEY_USE_SHORT_CARDS = "use_short_cards";
-
-    public static final boolean KEY_USE_SHORT_CARDS_DEF = true;
-
-    public static final String KEY_TIME_TZ = "timestamp_tz";
-
-    public static final int KEY_TIME_TZ_DEF = INTERACTIVE;
+    public static final int INTERACTIVE = WatchFaceConfig.INTERACTIVE;
 
     public static final String PATH_WITH_FEATURE = "/DevOpsTime";
 
+    // the config each watch last applied, see ConfigSync
+    public static final String PATH_CONFIG_APPLIED = PATH_WITH_FEATURE + "/applied";
 
-    public static int getInt(final Context context, final String key, final int defaultValue) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getInt(key, defaultValue);
-    }
+    // render time histograms sent by the watch face, see logRenderStats()
+    public static final String PATH_RENDER_STATS = PATH_WITH_FEATURE + "/render_stats";
+
+    public static final String KEY_RENDER_STATS_SUMMARY = "summary";
 
-    public static boolean getBoolean(final Context context, final String key,
-            final boolean defaultValue) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(key, defaultValue);
-    }
 
-    public static void setInt(final Context context, final String key, final int value) {
+    // Reads every setting from one look at the preferences, the defaults for the ones that were
+    // never written.
+    public static WatchFaceConfig readConfig(final Context context) {
         final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
-        final SharedPreferences.Editor editor = settings.edit();
-        editor.putInt(key, value);
-        editor.apply();
+        return new WatchFaceConfig.Builder()
+                .readFrom(new WatchFaceConfig.Source() {
+                    @Override
+                    public int getInt(String key, int defaultValue) {
+                        return settings.getInt(key, defaultValue);
+                    }
+
+                    @Override
+                    public boolean getBoolean(String key, boolean defaultValue) {
+                        return settings.getBoolean(key, defaultValue);
+                    }
+                })
+                .build();
     }
 
-    public static void setBoolean(final Context context, final String key, final boolean value) {
+    // Writes every setting in a single edit: one disk write instead of one per key, and no
+    // reader ever sees a config that is only half written.
+    public static void writeConfig(final Context context, final WatchFaceConfig config) {
         final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
         final SharedPreferences.Editor editor = settings.edit();
-        editor.putBoolean(key, value);
+        config.writeTo(new WatchFaceConfig.Sink() {
+            @Override
+            public void putInt(String key, int value) {
+                editor.putInt(key, value);
+            }
+
+            @Override
+            public void putBoolean(String key, boolean value) {
+                editor.putBoolean(key, value);
+            }
+        });
         editor.apply();
     }
 
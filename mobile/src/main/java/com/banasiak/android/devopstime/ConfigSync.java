@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Sends the config to the watches only if it isn't what they have already. Each watch
+// acknowledges the config it applied over the transport, a config that every watch
+// acknowledged isn't sent again. Only call this on the UI thread, the transport's.
+final class ConfigSync implements ConfigTransport.Receiver {
+
+    private static final String TAG = ConfigSync.class.getSimpleName();
+
+    private final ConfigTransport mTransport;
+
+    // the config each watch last applied, by source
+    private final Map<String, WatchFaceConfig> mApplied = new HashMap<String, WatchFaceConfig>();
+
+    // what to push once the acknowledgements are loaded
+    private WatchFaceConfig mWaiting;
+
+    private ConfigTrace mWaitingTrace;
+
+    private boolean mLoaded;
+
+    ConfigSync(ConfigTransport transport) {
+        mTransport = transport;
+    }
+
+    // Loads what the watches acknowledged so far and follows their acknowledgements from then
+    // on, call once the transport can be used.
+    void load() {
+        mLoaded = false;
+        mApplied.clear();
+        mTransport.setReceiver(this);
+    }
+
+    // Sends config unless the watches have it already. Before load() completed this only
+    // remembers it, the last one wins. The watches report how long the trace took in their
+    // render stats.
+    void push(WatchFaceConfig config, ConfigTrace trace) {
+        if (!mLoaded) {
+            mWaiting = config;
+            mWaitingTrace = trace;
+            return;
+        }
+        if (isAppliedEverywhere(config)) {
+            Log.d(TAG, "Config applied everywhere, not sending it: " + config);
+            return;
+        }
+        Log.d(TAG, "Sending config, trace " + trace + ": " + config);
+        mTransport.send(config, trace);
+    }
+
+    @Override
+    public void onConfigReceived(String source, WatchFaceConfig config, ConfigTrace trace) {
+        mApplied.put(source, config);
+    }
+
+    @Override
+    public void onCaughtUp() {
+        mLoaded = true;
+        if (mWaiting != null) {
+            WatchFaceConfig config = mWaiting;
+            mWaiting = null;
+            push(config, mWaitingTrace);
+        }
+    }
+
+    private boolean isAppliedEverywhere(WatchFaceConfig config) {
+        if (mApplied.isEmpty()) {
+            return false;
+        }
+        for (WatchFaceConfig applied : mApplied.values()) {
+            if (!config.equals(applied)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
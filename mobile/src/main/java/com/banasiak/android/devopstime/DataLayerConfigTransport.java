@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+// The companion app's end of the config link over the Data Layer: sends the config as the
+// PATH_WITH_FEATURE DataItem and receives what each watch applied, by node id, from the
+// PATH_CONFIG_APPLIED ones. Those replicate to the phone, so catching up is a local read. Every
+// put wakes the radio and every watch it reaches, even when the value is the same, so the
+// config sent last isn't put again. Only use this on the UI thread, with the client connected.
+final class DataLayerConfigTransport implements ConfigTransport, DataApi.DataListener {
+
+    private static final String TAG = DataLayerConfigTransport.class.getSimpleName();
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    private Receiver mReceiver;
+
+    private WatchFaceConfig mLastPut;
+
+    DataLayerConfigTransport(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    @Override
+    public void send(WatchFaceConfig config, ConfigTrace trace) {
+        if (config.equals(mLastPut)) {
+            Log.d(TAG, "Config put already: " + config);
+            return;
+        }
+        mLastPut = config;
+
+        PutDataMapRequest dataMap = PutDataMapRequest.create(CompanionSettings.PATH_WITH_FEATURE);
+        dataMap.getDataMap().putByteArray(WatchFaceConfig.KEY_CONFIG, config.toBytes());
+        if (trace != null) {
+            dataMap.getDataMap().putLong(ConfigTrace.KEY_TRACE_ID, trace.id);
+            dataMap.getDataMap().putLong(ConfigTrace.KEY_TRACE_ORIGIN, trace.originMs);
+        }
+        Wearable.DataApi.putDataItem(mGoogleApiClient, dataMap.asPutDataRequest())
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                        if (!dataItemResult.getStatus().isSuccess()) {
+                            // try again with the next send
+                            mLastPut = null;
+                        }
+                    }
+                });
+    }
+
+    // Call again after a reconnect, the listener may have missed changes meanwhile.
+    @Override
+    public void setReceiver(final Receiver receiver) {
+        if (mReceiver != null) {
+            Wearable.DataApi.removeListener(mGoogleApiClient, this);
+        }
+        mReceiver = receiver;
+        if (receiver == null) {
+            return;
+        }
+        Wearable.DataApi.addListener(mGoogleApiClient, this);
+
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(CompanionSettings.PATH_CONFIG_APPLIED)
+                .build();
+        Wearable.DataApi.getDataItems(mGoogleApiClient, uri).setResultCallback(
+                new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(@NonNull DataItemBuffer dataItems) {
+                        try {
+                            for (DataItem dataItem : dataItems) {
+                                deliver(receiver, dataItem);
+                            }
+                        } finally {
+                            dataItems.release();
+                        }
+                        receiver.onCaughtUp();
+                    }
+                }
+        );
+    }
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        try {
+            for (DataEvent dataEvent : dataEvents) {
+                if (dataEvent.getType() != DataEvent.TYPE_CHANGED) {
+                    continue;
+                }
+                DataItem dataItem = dataEvent.getDataItem();
+                Receiver receiver = mReceiver;
+                if (receiver != null && dataItem.getUri().getPath()
+                        .equals(CompanionSettings.PATH_CONFIG_APPLIED)) {
+                    deliver(receiver, dataItem);
+                }
+            }
+        } finally {
+            dataEvents.close();
+        }
+    }
+
+    private static void deliver(Receiver receiver, DataItem dataItem) {
+        String node = dataItem.getUri().getHost();
+        byte[] bytes = DataMapItem.fromDataItem(dataItem).getDataMap()
+                .getByteArray(WatchFaceConfig.KEY_CONFIG);
+        if (bytes == null) {
+            return;
+        }
+        WatchFaceConfig config;
+        try {
+            config = WatchFaceConfig.fromBytes(bytes);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Ignoring malformed config from " + node, e);
+            return;
+        }
+        receiver.onConfigReceived(node, config, null);
+    }
+}
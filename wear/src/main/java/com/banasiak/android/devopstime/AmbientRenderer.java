@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+// Keeps an ambient frame rendered ahead of time in an ALPHA_8 bitmap, a byte per pixel instead
+// of four. Ambient frames are text in a single color over a solid background, so the coverage
+// of the text is all there is to keep, and the frame goes on screen with one fill and one draw
+// of the bitmap tinted with the text color.
+final class AmbientRenderer {
+
+    private final Paint mTintPaint = new Paint();
+
+    private final int mBackgroundColor;
+
+    private Bitmap mFrame;
+
+    private Canvas mCanvas;
+
+    // the frame is for [mStartMs, mEndMs)
+    private long mStartMs;
+
+    private long mEndMs;
+
+    AmbientRenderer(int textColor, int backgroundColor) {
+        mTintPaint.setColor(textColor);
+        mBackgroundColor = backgroundColor;
+    }
+
+    // Clears the frame for a surface of the given size and returns the canvas to draw its
+    // lines on. Only the alpha of what is drawn is kept, the color comes from the tint.
+    Canvas begin(int width, int height) {
+        discard();
+        if (mFrame == null || mFrame.getWidth() != width || mFrame.getHeight() != height) {
+            recycle();
+            mFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            mCanvas = new Canvas(mFrame);
+        } else {
+            mFrame.eraseColor(Color.TRANSPARENT);
+        }
+        return mCanvas;
+    }
+
+    // Marks the frame drawn since begin() as the one for [startMs, endMs).
+    void end(long startMs, long endMs) {
+        mStartMs = startMs;
+        mEndMs = endMs;
+    }
+
+    boolean hasFrame(long timeMs, int width, int height) {
+        return mFrame != null
+                && mFrame.getWidth() == width
+                && mFrame.getHeight() == height
+                && timeMs >= mStartMs && timeMs < mEndMs;
+    }
+
+    void draw(Canvas canvas) {
+        canvas.drawColor(mBackgroundColor);
+        canvas.drawBitmap(mFrame, 0, 0, mTintPaint);
+    }
+
+    // Forgets the frame, for changes other than the time, but keeps the bitmap to draw into.
+    void discard() {
+        mStartMs = 0;
+        mEndMs = 0;
+    }
+
+    void recycle() {
+        discard();
+        if (mFrame != null) {
+            mFrame.recycle();
+            mFrame = null;
+            mCanvas = null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+
+// Decodes a background drawable off the UI thread, already scaled to the surface size. Only the
+// scaled copy survives, the decoded source is recycled as soon as the copy exists. For a
+// repeating texture it can instead cut a single tile out of the drawable, scaled as it would be
+// in the full size copy.
+final class BackgroundDecoder extends AsyncTask<Void, Void, Bitmap> {
+
+    // Callback interface to receive the decoded background on the UI thread
+    interface Callback {
+
+        void onBackgroundDecoded(Bitmap background, int width, int height);
+    }
+
+    private final Resources mResources;
+
+    private final int mResId;
+
+    private final int mWidth;
+
+    private final int mHeight;
+
+    // size of one period of the texture in the drawable's pixels, 0 to decode the whole image
+    private final int mTileWidth;
+
+    private final int mTileHeight;
+
+    private final Callback mCallback;
+
+    BackgroundDecoder(Resources resources, int resId, int width, int height, Callback callback) {
+        this(resources, resId, width, height, 0, 0, callback);
+    }
+
+    BackgroundDecoder(Resources resources, int resId, int width, int height, int tileWidth,
+            int tileHeight, Callback callback) {
+        mResources = resources;
+        mResId = resId;
+        mWidth = width;
+        mHeight = height;
+        mTileWidth = tileWidth;
+        mTileHeight = tileHeight;
+        mCallback = callback;
+    }
+
+    boolean isDecoding(int width, int height) {
+        return width == mWidth && height == mHeight;
+    }
+
+    @Override
+    protected Bitmap doInBackground(Void... params) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(mResources, mResId, options);
+
+        // decode at the drawable's own size, not scaled up for the screen density, and skip
+        // whole powers of two of resolution we would throw away when scaling down anyway
+        options.inJustDecodeBounds = false;
+        options.inScaled = false;
+        if (mTileWidth == 0) {
+            options.inSampleSize =
+                    calculateInSampleSize(options.outWidth, options.outHeight, mWidth, mHeight);
+        }
+        Bitmap source = BitmapFactory.decodeResource(mResources, mResId, options);
+        if (source == null) {
+            return null;
+        }
+        if (isCancelled()) {
+            source.recycle();
+            return null;
+        }
+
+        Bitmap scaled;
+        if (mTileWidth == 0) {
+            scaled = Bitmap.createScaledBitmap(source, mWidth, mHeight, true);
+        } else {
+            // the tile from the middle of the image, where edge effects are the weakest, scaled
+            // to the nearest whole pixel size so that it repeats without seams
+            int x = (source.getWidth() / 2) / mTileWidth * mTileWidth;
+            int y = (source.getHeight() / 2) / mTileHeight * mTileHeight;
+            Bitmap tile = Bitmap.createBitmap(source, x, y, mTileWidth, mTileHeight);
+            int tileWidth =
+                    Math.max(1, Math.round(mTileWidth * mWidth / (float) source.getWidth()));
+            int tileHeight =
+                    Math.max(1, Math.round(mTileHeight * mHeight / (float) source.getHeight()));
+            scaled = Bitmap.createScaledBitmap(tile, tileWidth, tileHeight, true);
+            if (tile != scaled && tile != source) {
+                tile.recycle();
+            }
+        }
+        if (scaled != source) {
+            source.recycle();
+        }
+        return scaled;
+    }
+
+    @Override
+    protected void onPostExecute(Bitmap background) {
+        if (background != null) {
+            mCallback.onBackgroundDecoded(background, mWidth, mHeight);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Bitmap background) {
+        if (background != null) {
+            background.recycle();
+        }
+    }
+
+    // The largest power of two that keeps the decoded size at or above the requested size.
+    static int calculateInSampleSize(int sourceWidth, int sourceHeight, int width, int height) {
+        int inSampleSize = 1;
+        while (sourceWidth / (inSampleSize * 2) >= width
+                && sourceHeight / (inSampleSize * 2) >= height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+// The process' own copy of the config DataMap this watch puts, so that keys can be merged into
+// it without reading it back from the Data Layer first. This process is the only writer of that
+// DataItem, so once seeded from it the copy stays authoritative. Every merge is a
+// compare-and-set of a new snapshot with the next version: concurrent merges retry on top of
+// each other instead of one overwriting the other's keys. Snapshots are never modified.
+// mergeAndPut() also keeps the puts in the order of their merges.
+final class ConfigMergeCache {
+
+    // Callback interface to issue the put of a merged config
+    interface Writer {
+
+        void put(DataMap config);
+    }
+
+    static final class Snapshot {
+
+        final long version;
+
+        // don't modify
+        final DataMap config;
+
+        Snapshot(long version, DataMap config) {
+            this.version = version;
+            this.config = config;
+        }
+    }
+
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<Snapshot>();
+
+    boolean isSeeded() {
+        return mSnapshot.get() != null;
+    }
+
+    // Starts from config as read from the Data Layer, unless already seeded meanwhile, in which
+    // case the copy here is the newer one.
+    void seed(DataMap config) {
+        DataMap copy = new DataMap();
+        copy.putAll(config);
+        mSnapshot.compareAndSet(null, new Snapshot(0, copy));
+    }
+
+    // Merges the keys into the latest snapshot and returns the resulting one. Must be seeded.
+    Snapshot merge(DataMap configKeysToOverwrite) {
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            DataMap merged = new DataMap();
+            merged.putAll(current.config);
+            merged.putAll(configKeysToOverwrite);
+            Snapshot next = new Snapshot(current.version + 1, merged);
+            if (mSnapshot.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    // Merges the keys and issues the put of the result before any later merge can, so that a
+    // put can't overtake a later one and undo its keys. Must be seeded.
+    synchronized Snapshot mergeAndPut(DataMap configKeysToOverwrite, Writer writer) {
+        Snapshot snapshot = merge(configKeysToOverwrite);
+        writer.put(snapshot.config);
+        return snapshot;
+    }
+}
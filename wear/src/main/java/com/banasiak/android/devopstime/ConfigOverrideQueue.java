@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataMap;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Collects the config keys to overwrite that arrive in a burst and writes them as one. Callers
+// only queue, which never blocks. BATCH_DELAY_MS after the first of a burst a thread of its
+// own merges everything queued meanwhile, later keys winning, into a single
+// overwriteKeysInConfigDataMap(). The queue is bounded: once it is full its content is merged
+// into one entry first, so no keys get lost.
+final class ConfigOverrideQueue {
+
+    private static final String TAG = ConfigOverrideQueue.class.getSimpleName();
+
+    private static final int CAPACITY = 16;
+
+    private static final long BATCH_DELAY_MS = 100;
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    private final BlockingQueue<DataMap> mQueue = new ArrayBlockingQueue<DataMap>(CAPACITY);
+
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // whether mFlush is scheduled and hasn't started draining yet
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled.set(false);
+            DataMap merged = drain();
+            if (merged != null) {
+                Log.d(TAG, "Overwriting config keys: " + merged);
+                WatchFaceUtil.overwriteKeysInConfigDataMap(mGoogleApiClient, merged);
+            }
+        }
+    };
+
+    // Calls on the client are queued by it until it is connected.
+    ConfigOverrideQueue(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    void add(DataMap configKeysToOverwrite) {
+        // queue and drain may race, retry until there is room; only ever once in practice
+        while (!mQueue.offer(configKeysToOverwrite)) {
+            DataMap merged = drain();
+            if (merged != null) {
+                merged.putAll(configKeysToOverwrite);
+                configKeysToOverwrite = merged;
+            }
+        }
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.schedule(mFlush, BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Everything queued so far merged in order, null if there was nothing.
+    private DataMap drain() {
+        DataMap next = mQueue.poll();
+        if (next == null) {
+            return null;
+        }
+        DataMap merged = new DataMap();
+        do {
+            merged.putAll(next);
+            next = mQueue.poll();
+        } while (next != null);
+        return merged;
+    }
+}
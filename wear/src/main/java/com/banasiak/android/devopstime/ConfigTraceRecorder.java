@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.util.concurrent.TimeUnit;
+
+// Times the stages of the traced config the engine is busy with, from the companion app's send
+// to the first frame drawn with it, and records them into RenderStats once it is on screen:
+// transit until received here, queued until applyConfig() picks it up, applyConfig() itself and
+// the first frame. A trace received before the one in flight was drawn replaces it, the way
+// the config does. One without a trace doesn't: that is the config fetched on a reconnect,
+// which the traced one in flight is timed through. Only use this on the UI thread, it doesn't
+// allocate.
+final class ConfigTraceRecorder {
+
+    private final RenderStats mStats;
+
+    // null if there is nothing in flight
+    private ConfigTrace mTrace;
+
+    private long mTransitNanos;
+
+    private long mReceivedNanos;
+
+    private long mApplyNanos;
+
+    private long mAppliedNanos;
+
+    // FrameModel.paintsVersion of the first frame that shows the config, -1 until applied
+    private int mPaintsVersion;
+
+    ConfigTraceRecorder(RenderStats stats) {
+        mStats = stats;
+    }
+
+    // A config arrived, trace is null if it wasn't sent with one.
+    void received(ConfigTrace trace) {
+        if (trace == null) {
+            return;
+        }
+        mTrace = trace;
+        // the clocks of the phone and the watch may disagree by a few ms
+        long transitMs = Math.max(0, System.currentTimeMillis() - trace.originMs);
+        mTransitNanos = TimeUnit.MILLISECONDS.toNanos(transitMs);
+        mReceivedNanos = System.nanoTime();
+        mApplyNanos = 0;
+        mPaintsVersion = -1;
+    }
+
+    void applying() {
+        if (mTrace != null && mApplyNanos == 0) {
+            mApplyNanos = System.nanoTime();
+        }
+    }
+
+    // The config is applied, frames with paintsVersion or later show it.
+    void applied(int paintsVersion) {
+        if (mTrace != null && mPaintsVersion < 0) {
+            mAppliedNanos = System.nanoTime();
+            mPaintsVersion = paintsVersion;
+        }
+    }
+
+    // A frame with paintsVersion was drawn.
+    void drawn(int paintsVersion) {
+        if (mTrace == null || mPaintsVersion < 0 || paintsVersion < mPaintsVersion) {
+            return;
+        }
+        long queuedNanos = mApplyNanos - mReceivedNanos;
+        long applyNanos = mAppliedNanos - mApplyNanos;
+        long firstFrameNanos = System.nanoTime() - mAppliedNanos;
+        mStats.configTraced(mTrace, mTransitNanos, queuedNanos, applyNanos, firstFrameNanos);
+        mTrace = null;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Persists the config behind the UI thread's back. Only the latest config asked to be written
+// is kept, a write replaces one that hasn't been flushed yet. It is flushed on a thread of its
+// own at most FLUSH_DELAY_MS after the first write that found nothing pending, with commit():
+// apply() would leave the disk write to QueuedWork, which the system waits for on the main
+// thread at service lifecycle transitions.
+final class ConfigWriter {
+
+    private static final String TAG = ConfigWriter.class.getSimpleName();
+
+    private static final long FLUSH_DELAY_MS = 1000;
+
+    private static final class Pending {
+
+        final WatchFaceConfig config;
+
+        final boolean timestampTzInteractiveState;
+
+        Pending(WatchFaceConfig config, boolean timestampTzInteractiveState) {
+            this.config = config;
+            this.timestampTzInteractiveState = timestampTzInteractiveState;
+        }
+    }
+
+    private final Context mContext;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, TAG);
+                }
+            });
+
+    private final AtomicReference<Pending> mPending = new AtomicReference<Pending>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            Pending pending = mPending.getAndSet(null);
+            if (pending == null) {
+                return;
+            }
+            if (!WatchFaceUtil.writeConfig(mContext, pending.config,
+                    pending.timestampTzInteractiveState)) {
+                Log.w(TAG, "Failed to persist " + pending.config);
+            }
+        }
+    };
+
+    ConfigWriter(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    // Writes config eventually, never blocks.
+    void write(WatchFaceConfig config, boolean timestampTzInteractiveState) {
+        if (mPending.getAndSet(new Pending(config, timestampTzInteractiveState)) == null) {
+            mExecutor.schedule(mFlush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Flushes what is pending right away and stops once that is written, without waiting for
+    // it. Nothing can be written afterwards.
+    void quit() {
+        mExecutor.execute(mFlush);
+        mExecutor.shutdown();
+    }
+}
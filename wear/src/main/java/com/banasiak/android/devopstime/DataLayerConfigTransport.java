@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import android.content.Context;
+import android.util.Log;
+
+// The watch's end of the config link over the Data Layer: receives the config DataItem, with
+// the trace of the change if it has one, and sends the applied config as the
+// PATH_CONFIG_APPLIED one. The receiver is called on the UI
+// thread, with the config fetched whenever the DataLayerConnection (re)connects and with every
+// change the listener sees in between. Only use this on the UI thread.
+final class DataLayerConfigTransport implements ConfigTransport, DataApi.DataListener,
+        DataLayerConnection.Callback {
+
+    private static final String TAG = DataLayerConfigTransport.class.getSimpleName();
+
+    private final DataLayerConnection mConnection;
+
+    private final LatencyHistogram mDataChanged;
+
+    private Receiver mReceiver;
+
+    // dataChanged records how long each onDataChanged() takes
+    DataLayerConfigTransport(Context context, LatencyHistogram dataChanged) {
+        mConnection = new DataLayerConnection(context, this, this);
+        mDataChanged = dataChanged;
+    }
+
+    // Connects from now until close(), see DataLayerConnection.
+    void connect() {
+        mConnection.connect();
+    }
+
+    void close() {
+        mConnection.close();
+    }
+
+    // for the other DataItems the watch face puts
+    DataLayerConnection getConnection() {
+        return mConnection;
+    }
+
+    // A put of the same value doesn't sync, so sending the same config again is cheap. The
+    // trace isn't sent, the watch reports it in its render stats instead.
+    @Override
+    public void send(WatchFaceConfig config, ConfigTrace trace) {
+        if (!mConnection.isConnected()) {
+            // the fetch once connected again delivers the config, whose receiver sends it then
+            return;
+        }
+        PutDataMapRequest request = PutDataMapRequest.create(WatchFaceUtil.PATH_CONFIG_APPLIED);
+        request.getDataMap().putByteArray(WatchFaceConfig.KEY_CONFIG, config.toBytes());
+        Wearable.DataApi.putDataItem(mConnection.getClient(), request.asPutDataRequest());
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        mReceiver = receiver;
+        if (receiver != null && mConnection.isConnected()) {
+            fetch();
+        }
+    }
+
+    @Override
+    public void onDataLayerConnected() {
+        // the listener may have missed updates: on the first connection and after a suspension
+        if (mReceiver != null) {
+            fetch();
+        }
+    }
+
+    private void fetch() {
+        WatchFaceUtil.fetchConfigDataMap(mConnection.getClient(),
+                new WatchFaceUtil.FetchConfigDataMapCallback() {
+                    @Override
+                    public void onConfigDataMapFetched(DataMap config) {
+                        Receiver receiver = mReceiver;
+                        if (receiver == null) {
+                            return;
+                        }
+                        if (config != null && !config.isEmpty()) {
+                            receiver.onConfigReceived(WatchFaceUtil.getLocalNode(),
+                                    WatchFaceUtil.fromDataMap(config), null);
+                        }
+                        receiver.onCaughtUp();
+                    }
+                }
+        );
+    }
+
+    @Override
+    public void onDataChanged(DataEventBuffer dataEvents) {
+        long startNanos = System.nanoTime();
+        try {
+            for (DataEvent dataEvent : dataEvents) {
+                if (dataEvent.getType() != DataEvent.TYPE_CHANGED) {
+                    continue;
+                }
+
+                DataItem dataItem = dataEvent.getDataItem();
+                if (!dataItem.getUri().getPath().equals(WatchFaceUtil.PATH_WITH_FEATURE)) {
+                    continue;
+                }
+
+                DataMap config = DataMapItem.fromDataItem(dataItem).getDataMap();
+                Log.d(TAG, "Config DataItem updated:" + config);
+                Receiver receiver = mReceiver;
+                if (receiver != null && config != null && !config.isEmpty()) {
+                    receiver.onConfigReceived(dataItem.getUri().getHost(),
+                            WatchFaceUtil.fromDataMap(config),
+                            WatchFaceUtil.traceFromDataMap(config));
+                }
+            }
+        } finally {
+            dataEvents.close();
+            mDataChanged.record(System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Wearable;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+// Keeps a GoogleApiClient connected to the Data Layer, with a DataListener registered, for as
+// long as its owner lives instead of connecting each time the watch face becomes visible. A
+// connection that failed is only retried on the next connect(), which does nothing while one
+// is up or coming up. While the listener stays registered every change reaches it, so the
+// owner's copy of the data stays current and it only has to fetch anything when
+// onDataLayerConnected() says events may have been missed. Only use this on the UI thread.
+final class DataLayerConnection implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+
+    // Callback interface to learn that the listener is (again) registered
+    interface Callback {
+
+        // Changes made since the last call, or ever on the first, may not have reached the
+        // listener.
+        void onDataLayerConnected();
+    }
+
+    private static final String TAG = DataLayerConnection.class.getSimpleName();
+
+    private final GoogleApiClient mGoogleApiClient;
+
+    private final DataApi.DataListener mListener;
+
+    private final Callback mCallback;
+
+    DataLayerConnection(Context context, DataApi.DataListener listener, Callback callback) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+        mListener = listener;
+        mCallback = callback;
+    }
+
+    void connect() {
+        if (!mGoogleApiClient.isConnected() && !mGoogleApiClient.isConnecting()) {
+            mGoogleApiClient.connect();
+        }
+    }
+
+    boolean isConnected() {
+        return mGoogleApiClient.isConnected();
+    }
+
+    // Only make calls on it while isConnected().
+    GoogleApiClient getClient() {
+        return mGoogleApiClient;
+    }
+
+    void close() {
+        if (mGoogleApiClient.isConnected()) {
+            Wearable.DataApi.removeListener(mGoogleApiClient, mListener);
+        }
+        mGoogleApiClient.disconnect();
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        Log.d(TAG, "onConnected: " + connectionHint);
+        // once more after a suspension, the registration may not have survived it
+        Wearable.DataApi.addListener(mGoogleApiClient, mListener);
+        mCallback.onDataLayerConnected();
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        // the client reconnects by itself and calls onConnected() again
+        Log.d(TAG, "onConnectionSuspended: " + cause);
+    }
+
+    @Override
+    public void onConnectionFailed(@NonNull ConnectionResult result) {
+        Log.d(TAG, "onConnectionFailed: " + result);
+    }
+}
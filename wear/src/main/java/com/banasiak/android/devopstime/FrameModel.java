@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.graphics.Rect;
+
+// Everything onDraw needs to know about one frame: the text of each line, where it goes and
+// whether it can be seen, valid for [startMs, endMs). FramePreparer fills these in on its own
+// thread; once one was handed to the UI thread it isn't written to until it is handed back.
+final class FrameModel {
+
+    final TextLine clock = new TextLine(5);
+
+    final TextLine period = new TextLine(2);
+
+    final TextLine timezone = new TextLine(8);
+
+    final TextLine datestamp = new TextLine(16);
+
+    final TextLine timestamp = new TextLine(14);
+
+    final TextLine epoch = new TextLine(32);
+
+    float xClock, yClock;
+
+    float xPeriod, yPeriod;
+
+    float xTimezone, yTimezone;
+
+    float xDatestamp, yDatestamp;
+
+    float xTimestamp, yTimestamp;
+
+    float xEpoch, yEpoch;
+
+    // measured bounds of the lines the frame layer redraws on their own, see drawLayered()
+    final Rect timestampBounds = new Rect();
+
+    final Rect epochBounds = new Rect();
+
+    // TimeFormatter bits of the lines that are shown at all, i.e. not covered by a peeking card
+    // and, for the period, not in 24 hour mode
+    int visibleLines;
+
+    // TimeFormatter bits of the lines whose text or size changed since the model before
+    int changed;
+
+    // whether any line moved since the model before
+    boolean layoutChanged;
+
+    // how many FramePreparer.setPaints() calls the lines were measured after
+    int paintsVersion;
+
+    long startMs;
+
+    long endMs;
+
+    // Whether this model is the one to draw at timeMs.
+    boolean covers(long timeMs) {
+        return timeMs >= startMs && timeMs < endMs;
+    }
+
+    // An empty model, e.g. the one the engine starts with, covers no time at all.
+    boolean isEmpty() {
+        return endMs == 0;
+    }
+
+    void setLayout(FaceLayout layout) {
+        xClock = layout.xClock;
+        yClock = layout.yClock;
+        xPeriod = layout.xPeriod;
+        yPeriod = layout.yPeriod;
+        xTimezone = layout.xTimezone;
+        yTimezone = layout.yTimezone;
+        xDatestamp = layout.xDatestamp;
+        yDatestamp = layout.yDatestamp;
+        xTimestamp = layout.xTimestamp;
+        yTimestamp = layout.yTimestamp;
+        xEpoch = layout.xEpoch;
+        yEpoch = layout.yEpoch;
+    }
+}
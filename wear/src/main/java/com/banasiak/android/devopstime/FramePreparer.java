@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Formats, measures and lays out the lines on a thread of its own, ahead of the tick they are
+// for, so that the UI thread only has to draw them. There are two FrameModels: the one the UI
+// thread draws from and the one being prepared or waiting to be picked up. They change hands
+// through two atomic slots, neither thread ever blocks on the other. A model that wasn't picked
+// up before the next one is prepared is taken back and overwritten, its changes carried over.
+// The setters are called on the UI thread and take effect with the next model prepared.
+final class FramePreparer {
+
+    // Callback interface to learn on the UI thread that a model is waiting, see takePending()
+    interface Callback {
+
+        void onFrameModelReady();
+    }
+
+    private static final String TAG = FramePreparer.class.getSimpleName();
+
+    private static final int LINE_COUNT = 6;
+
+    private static final int SECOND_LINES = TimeFormatter.TIMESTAMP | TimeFormatter.EPOCH;
+
+    // how long to wait when the UI thread holds both models, which it only does for a moment
+    private static final long RETRY_DELAY_MS = 1;
+
+    private final HandlerThread mThread;
+
+    private final Handler mHandler;
+
+    private final Handler mCallbackHandler;
+
+    private final Callback mCallback;
+
+    private final RenderStats mRenderStats;
+
+    private final WallClock mClock;
+
+    // the model waiting for the UI thread and the one it gave back
+    private final AtomicReference<FrameModel> mPending = new AtomicReference<FrameModel>();
+
+    private final AtomicReference<FrameModel> mFree = new AtomicReference<FrameModel>();
+
+    // everything from here on is only touched on mThread, by line in the order of the
+    // TimeFormatter bits
+    private final TimeFormatter mFormatter;
+
+    private final FaceLayout mLayout = new FaceLayout();
+
+    private final TextLine[] mLines = new TextLine[LINE_COUNT];
+
+    private final GlyphAtlas[] mAtlases = new GlyphAtlas[LINE_COUNT];
+
+    private final Rect[] mBounds = new Rect[LINE_COUNT];
+
+    // the lines to measure for the next model even if their text didn't change
+    private int mRemeasureLines = TimeFormatter.ALL;
+
+    private PaintSet mInteractivePaints;
+
+    private PaintSet mAmbientPaints;
+
+    // how many times setPaints() was called, see FrameModel.paintsVersion
+    private int mPaintsVersion;
+
+    private int mPeekTop;
+
+    private boolean mAmbient;
+
+    // end of the last model published, where the next one starts
+    private long mNextStartMs;
+
+    private boolean mQuit;
+
+    private final Runnable mPrepareNow = new Runnable() {
+        @Override
+        public void run() {
+            prepare(mClock.currentTimeMillis(), this);
+        }
+    };
+
+    private final Runnable mPrepareNext = new Runnable() {
+        @Override
+        public void run() {
+            prepare(mNextStartMs, this);
+        }
+    };
+
+    private final Runnable mModelReady = new Runnable() {
+        @Override
+        public void run() {
+            if (!mQuit) {
+                mCallback.onFrameModelReady();
+            }
+        }
+    };
+
+    FramePreparer(String epochLabel, boolean is24Hour, Locale locale, WallClock clock,
+            RenderStats renderStats, Callback callback) {
+        mFormatter = new TimeFormatter(epochLabel, is24Hour, locale);
+        mLines[0] = mFormatter.clock;
+        mLines[1] = mFormatter.period;
+        mLines[2] = mFormatter.timezone;
+        mLines[3] = mFormatter.datestamp;
+        mLines[4] = mFormatter.timestamp;
+        mLines[5] = mFormatter.epoch;
+        for (int i = 0; i < LINE_COUNT; i++) {
+            mBounds[i] = new Rect();
+        }
+        mFree.set(new FrameModel());
+        mClock = clock;
+        mRenderStats = renderStats;
+        mCallback = callback;
+        mCallbackHandler = new Handler(Looper.myLooper());
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    // The looper the models are prepared on, for tests to run it step by step.
+    Looper getLooper() {
+        return mThread.getLooper();
+    }
+
+    // Takes the model waiting for the UI thread, if any. It has to be given back either with
+    // restorePending(), if it isn't due yet, or with release() once the next one is taken.
+    FrameModel takePending() {
+        return mPending.getAndSet(null);
+    }
+
+    void restorePending(FrameModel model) {
+        // nothing can have been published meanwhile, the UI thread held both models
+        if (!mPending.compareAndSet(null, model)) {
+            mFree.set(model);
+        }
+    }
+
+    // Gives back a model the UI thread is done drawing from.
+    void release(FrameModel model) {
+        mFree.set(model);
+    }
+
+    // Prepares the model that follows the last one published, call after taking that one.
+    void prepareNext() {
+        mHandler.post(mPrepareNext);
+    }
+
+    // Prepares a model for right now, after anything but the time changed.
+    void prepareNow() {
+        mHandler.post(mPrepareNow);
+    }
+
+    void setTimeZone(final TimeZone tz) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFormatter.setTimeZone(tz);
+            }
+        });
+    }
+
+    void setTimestampTimeZone(final TimeZone tz) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mFormatter.setTimestampTimeZone(tz);
+            }
+        });
+    }
+
+    // Measures with the paints of the sets from now on. They are only read here, the sets
+    // never change. Only the lines whose paints differ from the sets before are re-measured.
+    // Models stamped with the number of calls so far are measured with these.
+    void setPaints(final PaintSet interactive, final PaintSet ambient, final int changedLines) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mInteractivePaints = interactive;
+                mAmbientPaints = ambient;
+                mRemeasureLines |= changedLines;
+                mPaintsVersion++;
+            }
+        });
+    }
+
+    // The atlases the lines are drawn from in interactive mode, they measure differently.
+    // Only their advances are read here, so they may be recycled on the UI thread any time.
+    void setGlyphAtlases(final GlyphAtlas clock, final GlyphAtlas timestamp,
+            final GlyphAtlas epoch) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mAtlases[0] = clock;
+                mAtlases[4] = timestamp;
+                mAtlases[5] = epoch;
+                mRemeasureLines = TimeFormatter.ALL;
+            }
+        });
+    }
+
+    void setSurface(final boolean isRound, final int width) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setSurface(isRound, width);
+            }
+        });
+    }
+
+    void setOffsets(final float xOffset, final float yOffset, final float padding) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mLayout.setOffsets(xOffset, yOffset, padding);
+            }
+        });
+    }
+
+    // The top of the peeking card, 0 when there is none.
+    void setPeekTop(final int top) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mPeekTop = top;
+            }
+        });
+    }
+
+    void setAmbient(final boolean ambient) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mAmbient = ambient;
+                mRemeasureLines = TimeFormatter.ALL;
+            }
+        });
+    }
+
+    void quit() {
+        mQuit = true;
+        mCallbackHandler.removeCallbacks(mModelReady);
+        mHandler.removeCallbacksAndMessages(null);
+        mThread.quitSafely();
+    }
+
+    // Formats the lines for timeMs, re-measures and lays out the ones that changed and
+    // publishes the result. Reposts retry if there is no model to fill in.
+    private void prepare(long timeMs, Runnable retry) {
+        int carried = 0;
+        boolean carriedLayout = false;
+        FrameModel model = mFree.getAndSet(null);
+        if (model == null) {
+            model = mPending.getAndSet(null);
+            if (model == null) {
+                mHandler.postDelayed(retry, RETRY_DELAY_MS);
+                return;
+            }
+            // the UI thread never saw these changes
+            carried = model.changed;
+            carriedLayout = model.layoutChanged;
+        }
+
+        long startNanos = System.nanoTime();
+        int changed = mFormatter.format(timeMs) | mRemeasureLines;
+        mRemeasureLines = 0;
+        long formattedNanos = System.nanoTime();
+
+        // re-measure only the lines whose text changed, the layout only recalculates the
+        // offsets if one of the bounds or the surface actually changed
+        for (int i = 0; i < LINE_COUNT; i++) {
+            if ((changed & (1 << i)) != 0 && !measureLine(i)) {
+                // no paints yet, measure once they are set
+                mRemeasureLines |= 1 << i;
+            }
+        }
+        boolean layoutChanged = mLayout.update();
+        int visibleLines = visibleLines();
+
+        model.clock.set(mFormatter.clock);
+        model.period.set(mFormatter.period);
+        model.timezone.set(mFormatter.timezone);
+        model.datestamp.set(mFormatter.datestamp);
+        model.timestamp.set(mFormatter.timestamp);
+        model.epoch.set(mFormatter.epoch);
+        model.setLayout(mLayout);
+        model.timestampBounds.set(mBounds[4]);
+        model.epochBounds.set(mBounds[5]);
+        model.visibleLines = visibleLines;
+        model.paintsVersion = mPaintsVersion;
+        model.changed = changed | carried;
+        model.layoutChanged = layoutChanged || carriedLayout;
+        model.startMs = timeMs;
+        // the seconds aren't shown in ambient mode
+        model.endMs = mFormatter.nextChange(timeMs,
+                mAmbient ? visibleLines & ~SECOND_LINES : visibleLines);
+        mNextStartMs = model.endMs;
+
+        long endNanos = System.nanoTime();
+        mRenderStats.phase(mAmbient, RenderStats.FORMAT).record(formattedNanos - startNanos);
+        mRenderStats.phase(mAmbient, RenderStats.MEASURE).record(endNanos - formattedNanos);
+
+        mPending.set(model);
+        mCallbackHandler.post(mModelReady);
+    }
+
+    // Returns whether the line could be measured, it can't before setPaints().
+    private boolean measureLine(int index) {
+        TextLine text = mLines[index];
+        Rect bounds = mBounds[index];
+        PaintSet paints = mAmbient ? mAmbientPaints : mInteractivePaints;
+        if (paints == null) {
+            return false;
+        }
+        paints.forMeasuring(1 << index).getTextBounds(text.chars, 0, text.length, bounds);
+        int width = bounds.width();
+        GlyphAtlas atlas = mAtlases[index];
+        if (atlas != null && !mAmbient && atlas.canDraw(text)) {
+            width = atlas.measure(text);
+        }
+        mLayout.setTextBounds(1 << index, width, bounds.height());
+        return true;
+    }
+
+    // The bits of the lines that are drawn at all: not covered by a peeking card, and the
+    // period only in 12 hour mode.
+    private int visibleLines() {
+        int lines = mFormatter.is24Hour() ? TimeFormatter.ALL & ~TimeFormatter.PERIOD
+                : TimeFormatter.ALL;
+        int top = mPeekTop;
+        if (top == 0) {
+            return lines;
+        }
+        FaceLayout layout = mLayout;
+        if (layout.yClock >= top) {
+            lines &= ~TimeFormatter.CLOCK;
+        }
+        if (layout.yPeriod >= top) {
+            lines &= ~TimeFormatter.PERIOD;
+        }
+        if (layout.yTimezone >= top) {
+            lines &= ~TimeFormatter.TIMEZONE;
+        }
+        if (layout.yDatestamp >= top) {
+            lines &= ~TimeFormatter.DATESTAMP;
+        }
+        if (layout.yTimestamp >= top) {
+            lines &= ~TimeFormatter.TIMESTAMP;
+        }
+        if (layout.yEpoch >= top) {
+            lines &= ~TimeFormatter.EPOCH;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+// A set of glyphs rasterized once for a paint's text size, drawn by blitting them from
+// an ALPHA_8 bitmap with fixed advances instead of going through text shaping on every frame.
+// All digits share the widest digit's advance, so a line of digits keeps its width as they
+// change.
+final class GlyphAtlas {
+
+    static final String DIGITS = "0123456789";
+
+    // padding around each glyph so anti-aliased edges aren't clipped
+    private static final int PADDING = 2;
+
+    private static final int NO_GLYPH = -1;
+
+    // glyph cell index by char, only ASCII is supported
+    private final int[] mCellIndex = new int[128];
+
+    // horizontal advance by cell
+    private final int[] mAdvances;
+
+    private final float mTextSize;
+
+    private final Bitmap mBitmap;
+
+    private final int mCellWidth;
+
+    private final int mCellHeight;
+
+    private final int mAscent;
+
+    private final Rect mSrc = new Rect();
+
+    private final Rect mDst = new Rect();
+
+    GlyphAtlas(Paint paint, String glyphs) {
+        mTextSize = paint.getTextSize();
+
+        Paint rasterPaint = new Paint(paint);
+        rasterPaint.setTextAlign(Paint.Align.LEFT);
+        rasterPaint.setColor(0xffffffff);
+
+        int digitAdvance = 0;
+        for (int i = 0; i < DIGITS.length(); i++) {
+            digitAdvance = Math.max(digitAdvance,
+                    (int) Math.ceil(rasterPaint.measureText(DIGITS, i, i + 1)));
+        }
+
+        // drop duplicates and anything we can't index, lines using those chars are left to
+        // the text engine
+        StringBuilder unique = new StringBuilder(glyphs.length());
+        Arrays.fill(mCellIndex, NO_GLYPH);
+        for (int i = 0; i < glyphs.length(); i++) {
+            char c = glyphs.charAt(i);
+            if (c < mCellIndex.length && mCellIndex[c] == NO_GLYPH) {
+                mCellIndex[c] = unique.length();
+                unique.append(c);
+            }
+        }
+        glyphs = unique.toString();
+
+        mAdvances = new int[glyphs.length()];
+        int maxAdvance = 0;
+        for (int i = 0; i < glyphs.length(); i++) {
+            mAdvances[i] = DIGITS.indexOf(glyphs.charAt(i)) >= 0 ? digitAdvance
+                    : (int) Math.ceil(rasterPaint.measureText(glyphs, i, i + 1));
+            maxAdvance = Math.max(maxAdvance, mAdvances[i]);
+        }
+
+        Paint.FontMetricsInt metrics = rasterPaint.getFontMetricsInt();
+        mAscent = -metrics.ascent;
+        mCellWidth = maxAdvance + 2 * PADDING;
+        mCellHeight = mAscent + metrics.descent + 2 * PADDING;
+
+        mBitmap = Bitmap.createBitmap(mCellWidth * glyphs.length(), mCellHeight,
+                Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < glyphs.length(); i++) {
+            // center narrow glyphs in their advance, that is what makes the digits tabular
+            float glyphWidth = rasterPaint.measureText(glyphs, i, i + 1);
+            float x = i * mCellWidth + PADDING + (mAdvances[i] - glyphWidth) / 2;
+            canvas.drawText(glyphs, i, i + 1, x, PADDING + mAscent, rasterPaint);
+        }
+    }
+
+    // Whether the atlas was built for the paint's current text size.
+    boolean matches(Paint paint) {
+        return paint.getTextSize() == mTextSize;
+    }
+
+    // Whether every char of the line has a glyph in the atlas.
+    boolean canDraw(TextLine line) {
+        for (int i = 0; i < line.length; i++) {
+            char c = line.chars[i];
+            if (c >= mCellIndex.length || mCellIndex[c] == NO_GLYPH) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The width of the line when drawn from the atlas.
+    int measure(TextLine line) {
+        int width = 0;
+        for (int i = 0; i < line.length; i++) {
+            width += mAdvances[mCellIndex[line.chars[i]]];
+        }
+        return width;
+    }
+
+    // Draws the line with its baseline at y, aligned on x according to the paint, in the
+    // paint's color.
+    void draw(Canvas canvas, TextLine line, float x, float y, Paint paint) {
+        int width = measure(line);
+        float left = x;
+        if (paint.getTextAlign() == Paint.Align.CENTER) {
+            left -= width / 2f;
+        } else if (paint.getTextAlign() == Paint.Align.RIGHT) {
+            left -= width;
+        }
+
+        // snap to whole pixels so the glyphs are copied 1:1
+        int pen = Math.round(left);
+        int top = Math.round(y) - mAscent - PADDING;
+        for (int i = 0; i < line.length; i++) {
+            int cell = mCellIndex[line.chars[i]];
+            mSrc.set(cell * mCellWidth, 0, (cell + 1) * mCellWidth, mCellHeight);
+            mDst.set(pen - PADDING, top, pen - PADDING + mCellWidth, top + mCellHeight);
+            canvas.drawBitmap(mBitmap, mSrc, mDst, paint);
+            pen += mAdvances[cell];
+        }
+    }
+
+    void recycle() {
+        mBitmap.recycle();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import java.io.PrintWriter;
+
+// A latency histogram with fixed power of two buckets in microseconds, cheap enough to record
+// into on every frame: no allocation, no locking. Bucket 0 counts samples under 1 us, bucket i
+// the ones in [2^(i-1), 2^i) us and the last bucket everything from there up.
+final class LatencyHistogram {
+
+    static final int BUCKETS = 20;
+
+    private final long[] mCounts = new long[BUCKETS];
+
+    private long mCount;
+
+    private long mTotalNanos;
+
+    private long mMaxNanos;
+
+    void record(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0
+                : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mCounts[bucket]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+    }
+
+    long count() {
+        return mCount;
+    }
+
+    long meanMicros() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount / 1000;
+    }
+
+    long maxMicros() {
+        return mMaxNanos / 1000;
+    }
+
+    // An upper bound for the given percentile: the upper edge of the bucket it falls in, or the
+    // maximum if that is lower.
+    long percentileMicros(int percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (mCount * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, maxMicros());
+            }
+        }
+        return maxMicros();
+    }
+
+    // A copy of the bucket counts.
+    long[] buckets() {
+        return mCounts.clone();
+    }
+
+    void dump(PrintWriter writer, String name) {
+        writer.println(name + ": n=" + mCount + " mean=" + meanMicros()
+                + " p50<=" + percentileMicros(50) + " p90<=" + percentileMicros(90)
+                + " p99<=" + percentileMicros(99) + " max=" + maxMicros());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+// The text paints of the lines for one mode. A set is never changed once built, a new text
+// size, alignment or display property builds a new one, so switching modes only means drawing
+// with the other set. Paint isn't safe to use on two threads at once, so FramePreparer measures
+// with copies of its own while the UI thread draws with the originals.
+final class PaintSet {
+
+    final Paint clock;
+
+    final Paint period;
+
+    final Paint timezone;
+
+    final Paint datestamp;
+
+    final Paint timestamp;
+
+    final Paint epoch;
+
+    // the copies to measure with, by line in the order of the TimeFormatter bits
+    private final Paint[] mMeasuring;
+
+    // textSizes in px, in the order of the TimeFormatter line bits; primaryColor is for the
+    // clock, period and time zone, secondaryColor for the date, timestamp and epoch
+    PaintSet(float[] textSizes, Paint.Align align, Typeface typeface, int primaryColor,
+            int secondaryColor, boolean antiAlias) {
+        clock = createTextPaint(textSizes[0], align, typeface, primaryColor, antiAlias);
+        period = createTextPaint(textSizes[1], align, typeface, primaryColor, antiAlias);
+        timezone = createTextPaint(textSizes[2], align, typeface, primaryColor, antiAlias);
+        datestamp = createTextPaint(textSizes[3], align, typeface, secondaryColor, antiAlias);
+        timestamp = createTextPaint(textSizes[4], align, typeface, secondaryColor, antiAlias);
+        epoch = createTextPaint(textSizes[5], align, typeface, secondaryColor, antiAlias);
+        mMeasuring = new Paint[]{new Paint(clock), new Paint(period), new Paint(timezone),
+                new Paint(datestamp), new Paint(timestamp), new Paint(epoch)};
+    }
+
+    // FramePreparer's copy of the paint of the line with the given TimeFormatter bit.
+    Paint forMeasuring(int line) {
+        switch (line) {
+            case TimeFormatter.CLOCK:
+                return mMeasuring[0];
+            case TimeFormatter.PERIOD:
+                return mMeasuring[1];
+            case TimeFormatter.TIMEZONE:
+                return mMeasuring[2];
+            case TimeFormatter.DATESTAMP:
+                return mMeasuring[3];
+            case TimeFormatter.TIMESTAMP:
+                return mMeasuring[4];
+            case TimeFormatter.EPOCH:
+                return mMeasuring[5];
+            default:
+                throw new IllegalArgumentException("line " + line);
+        }
+    }
+
+    private static Paint createTextPaint(float textSize, Paint.Align align, Typeface typeface,
+            int color, boolean antiAlias) {
+        Paint paint = new Paint();
+        paint.setColor(color);
+        paint.setTypeface(typeface);
+        paint.setAntiAlias(antiAlias);
+        paint.setTextSize(textSize);
+        paint.setTextAlign(align);
+        return paint;
+    }
+}
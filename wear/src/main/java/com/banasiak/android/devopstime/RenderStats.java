@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+// Render time histograms of the watch face, per phase of a frame and separately for interactive
+// and ambient mode, plus the config handling and the stages of traced configs, see
+// ConfigTraceRecorder. Each histogram is recorded on one thread, format
+// and measure on FramePreparer's and the rest on the UI thread; dump() and writeTo() may run
+// elsewhere and read counts a sample behind, which is fine for this.
+final class RenderStats {
+
+    // the whole onDraw
+    static final int FRAME = 0;
+
+    static final int BACKGROUND = 1;
+
+    // preparing the frame model, off the UI thread
+    static final int FORMAT = 2;
+
+    static final int MEASURE = 3;
+
+    // drawing and compositing the lines
+    static final int DRAW = 4;
+
+    private static final String[] PHASE_NAMES = {"frame", "background", "format", "measure",
+            "draw"};
+
+    static final String KEY_SUMMARY = "summary";
+
+    private final LatencyHistogram[] mInteractive = newHistograms();
+
+    private final LatencyHistogram[] mAmbient = newHistograms();
+
+    // applyConfig(), once per burst of config updates
+    final LatencyHistogram config = new LatencyHistogram();
+
+    // onDataChanged()
+    final LatencyHistogram dataChanged = new LatencyHistogram();
+
+    private final LatencyHistogram mTraceTransit = new LatencyHistogram();
+
+    private final LatencyHistogram mTraceQueued = new LatencyHistogram();
+
+    private final LatencyHistogram mTraceFirstFrame = new LatencyHistogram();
+
+    // sent by the companion app until the first frame
+    private final LatencyHistogram mTraceTotal = new LatencyHistogram();
+
+    // the last config traced and its stages
+    private ConfigTrace mLastTrace;
+
+    private long mLastTraceTransitNanos;
+
+    private long mLastTraceQueuedNanos;
+
+    private long mLastTraceApplyNanos;
+
+    private long mLastTraceFirstFrameNanos;
+
+    LatencyHistogram phase(boolean ambient, int phase) {
+        return ambient ? mAmbient[phase] : mInteractive[phase];
+    }
+
+    void configTraced(ConfigTrace trace, long transitNanos, long queuedNanos, long applyNanos,
+            long firstFrameNanos) {
+        mTraceTransit.record(transitNanos);
+        mTraceQueued.record(queuedNanos);
+        mTraceFirstFrame.record(firstFrameNanos);
+        mTraceTotal.record(transitNanos + queuedNanos + applyNanos + firstFrameNanos);
+        mLastTraceTransitNanos = transitNanos;
+        mLastTraceQueuedNanos = queuedNanos;
+        mLastTraceApplyNanos = applyNanos;
+        mLastTraceFirstFrameNanos = firstFrameNanos;
+        mLastTrace = trace;
+    }
+
+    void dump(PrintWriter writer) {
+        writer.println("Render times in us, percentiles rounded up to powers of two:");
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            mInteractive[i].dump(writer, "  interactive " + PHASE_NAMES[i]);
+        }
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            mAmbient[i].dump(writer, "  ambient " + PHASE_NAMES[i]);
+        }
+        config.dump(writer, "  config update");
+        dataChanged.dump(writer, "  data changed");
+        mTraceTransit.dump(writer, "  config transit");
+        mTraceQueued.dump(writer, "  config queued");
+        mTraceFirstFrame.dump(writer, "  config first frame");
+        mTraceTotal.dump(writer, "  config total");
+        ConfigTrace trace = mLastTrace;
+        if (trace != null) {
+            writer.println("Last config trace " + trace + " in us: transit "
+                    + mLastTraceTransitNanos / 1000 + ", queued " + mLastTraceQueuedNanos / 1000
+                    + ", apply " + mLastTraceApplyNanos / 1000 + ", first frame "
+                    + mLastTraceFirstFrameNanos / 1000);
+        }
+    }
+
+    // Writes the bucket counts of every histogram and the dump() text into dataMap, for the
+    // companion app.
+    void writeTo(DataMap dataMap) {
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            dataMap.putLongArray("interactive_" + PHASE_NAMES[i], mInteractive[i].buckets());
+            dataMap.putLongArray("ambient_" + PHASE_NAMES[i], mAmbient[i].buckets());
+        }
+        dataMap.putLongArray("config_update", config.buckets());
+        dataMap.putLongArray("data_changed", dataChanged.buckets());
+        dataMap.putLongArray("config_transit", mTraceTransit.buckets());
+        dataMap.putLongArray("config_queued", mTraceQueued.buckets());
+        dataMap.putLongArray("config_first_frame", mTraceFirstFrame.buckets());
+        dataMap.putLongArray("config_total", mTraceTotal.buckets());
+
+        StringWriter summary = new StringWriter();
+        PrintWriter writer = new PrintWriter(summary);
+        dump(writer);
+        writer.flush();
+        dataMap.putString(KEY_SUMMARY, summary.toString());
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[PHASE_NAMES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+}
@@ -24,20 +24,23 @@ import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import android.content.Context;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import java.util.concurrent.TimeUnit;
-
 // A WearableListenerService listening for WatchFaceService config messages and updating the config
-// DataItem accordingly.
-public class WatchFaceConfigListener extends WearableListenerService
-        implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+// DataItem accordingly. The messages only queue their keys, see ConfigOverrideQueue, so a burst
+// of them becomes one write. The client and the queue are shared by every instance of the
+// service and live as long as the process: the system creates and destroys the service around
+// each burst, and connecting anew each time would cost more than the write.
+public class WatchFaceConfigListener extends WearableListenerService {
 
     private static final String TAG = WatchFaceConfigListener.class.getSimpleName();
 
-    private GoogleApiClient mGoogleApiClient;
+    private static GoogleApiClient sGoogleApiClient;
+
+    private static ConfigOverrideQueue sQueue;
 
     @Override
     public void onMessageReceived(MessageEvent messageEvent) {
@@ -50,35 +53,44 @@ public class WatchFaceConfigListener extends WearableListenerService
         DataMap configKeysToOverwrite = DataMap.fromByteArray(rawData);
         Log.d(TAG, "Received watch face config message: " + configKeysToOverwrite);
 
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this).addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this).addApi(Wearable.API).build();
-        }
-        if (!mGoogleApiClient.isConnected()) {
-            ConnectionResult connectionResult =
-                    mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
+        getQueue(this).add(configKeysToOverwrite);
+    }
 
-            if (!connectionResult.isSuccess()) {
-                Log.e(TAG, "Failed to connect to GoogleApiClient.");
-                return;
-            }
+    // The shared queue, with its client connected or connecting. Never blocks: the client
+    // holds calls made meanwhile until it is connected.
+    private static synchronized ConfigOverrideQueue getQueue(Context context) {
+        if (sGoogleApiClient == null) {
+            ClientCallbacks callbacks = new ClientCallbacks();
+            sGoogleApiClient = new GoogleApiClient.Builder(context.getApplicationContext())
+                    .addConnectionCallbacks(callbacks)
+                    .addOnConnectionFailedListener(callbacks)
+                    .addApi(Wearable.API)
+                    .build();
+            sQueue = new ConfigOverrideQueue(sGoogleApiClient);
         }
-
-        WatchFaceUtil.overwriteKeysInConfigDataMap(mGoogleApiClient, configKeysToOverwrite);
+        if (!sGoogleApiClient.isConnected() && !sGoogleApiClient.isConnecting()) {
+            sGoogleApiClient.connect();
+        }
+        return sQueue;
     }
 
-    @Override
-    public void onConnected(Bundle connectionHint) {
-        Log.d(TAG, "onConnected: " + connectionHint);
-    }
+    private static class ClientCallbacks implements GoogleApiClient.ConnectionCallbacks,
+            GoogleApiClient.OnConnectionFailedListener {
 
-    @Override
-    public void onConnectionSuspended(int cause) {
-        Log.d(TAG, "onConnectionSuspended: " + cause);
-    }
+        @Override
+        public void onConnected(Bundle connectionHint) {
+            Log.d(TAG, "onConnected: " + connectionHint);
+        }
 
-    @Override
-    public void onConnectionFailed(@NonNull ConnectionResult result) {
-        Log.d(TAG, "onConnectionFailed: " + result);
+        @Override
+        public void onConnectionSuspended(int cause) {
+            Log.d(TAG, "onConnectionSuspended: " + cause);
+        }
+
+        @Override
+        public void onConnectionFailed(@NonNull ConnectionResult result) {
+            // calls held for the connection fail with it, the next message connects again
+            Log.e(TAG, "Failed to connect to GoogleApiClient: " + result);
+        }
     }
 }
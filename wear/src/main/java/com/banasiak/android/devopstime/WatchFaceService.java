@@ -17,14 +17,7 @@
 
 package com.banasiak.android.devopstime;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import android.content.BroadcastReceiver;
@@ -33,15 +26,19 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
+import android.graphics.ComposeShader;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.RadialGradient;
 import android.graphics.Rect;
+import android.graphics.Shader;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.support.annotation.NonNull;
+import android.os.SystemClock;
 import android.support.v4.content.ContextCompat;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
@@ -51,8 +48,10 @@ import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 
@@ -67,24 +66,115 @@ public class WatchFaceService extends CanvasWatchFaceService {
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
 
-    // Update rate in milliseconds for normal (not ambient) mode.
-    private static final long NORMAL_UPDATE_RATE_MS = 500;
+    // Render mode bit: interactive frames are composited from cached offscreen layers instead of
+    // repainting the background and every line on each tick.
+    static final int LAYERED_RENDERING = 1;
+
+    // Render mode bit: the clock, timestamp and epoch are drawn from prerendered glyph atlases
+    // with fixed digit advances instead of through the text engine, in interactive mode.
+    static final int GLYPH_ATLAS_RENDERING = 1 << 1;
+
+    // Render mode bit: the background is filled from a single tile of the kevlar weave with a
+    // repeating shader, the vignette redone as a gradient, instead of from a full screen scaled
+    // bitmap.
+    static final int TILED_BACKGROUND = 1 << 2;
+
+    // one period of the kevlar weave, in the drawable's pixels
+    static final int KEVLAR_TILE_WIDTH = 8;
+
+    static final int KEVLAR_TILE_HEIGHT = 9;
+
+    // darkening of the kevlar drawable's vignette from its center out to the corners
+    private static final int[] KEVLAR_VIGNETTE_COLORS =
+            {0x00000000, 0x1a000000, 0x75000000, 0xc7000000};
+
+    private static final float[] KEVLAR_VIGNETTE_STOPS = {0f, 0.31f, 0.71f, 1f};
+
+    // Render mode bit: the next minute's ambient frame is rendered into an ALPHA_8 bitmap right
+    // after the current one, so that the minute tick only has to put it on the screen, see
+    // AmbientRenderer.
+    static final int AMBIENT_PRERENDER = 1 << 3;
+
+    static final int DEFAULT_RENDER_MODES = LAYERED_RENDERING | AMBIENT_PRERENDER;
+
+    private static final String[] RENDER_MODE_NAMES =
+            {"layered", "glyph-atlas", "tiled-background", "ambient-prerender"};
+
+    // How often at most the render stats are sent to the companion app.
+    private static final long RENDER_STATS_EXPORT_INTERVAL_MS = 60 * 60 * 1000;
+
+    // the zone of a UTC timestamp, shared so that toggling to it doesn't allocate
+    private static final TimeZone UTC_ZONE = new SimpleTimeZone(0, "UTC");
+
+    private static final String CLOCK_GLYPHS = GlyphAtlas.DIGITS + ":";
+
+    private static final String TIMESTAMP_GLYPHS = GlyphAtlas.DIGITS + ":+- ";
+
+    // render time histograms of the engine, see dump()
+    final RenderStats mRenderStats = new RenderStats();
+
+    // The render mode bits the engine switches to with its next frame, see
+    // Engine.updateRenderModes(). Set from dump() in debug builds, or by tests.
+    volatile int mRenderModes = DEFAULT_RENDER_MODES;
+
+    // the time of day the engine draws, replaced by tests before the engine is created
+    WallClock mClock = WallClock.SYSTEM;
 
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
-            GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+    // adb shell dumpsys activity service com.banasiak.android.devopstime/.WatchFaceService
+    // In debug builds, appending "render-modes" and the names of the modes to turn on, e.g.
+    // "render-modes layered tiled-background", switches to those first.
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        if (BuildConfig.DEBUG && args != null && args.length > 0
+                && args[0].equals("render-modes")) {
+            int modes = 0;
+            for (int i = 1; i < args.length; i++) {
+                int index = Arrays.asList(RENDER_MODE_NAMES).indexOf(args[i]);
+                if (index < 0) {
+                    writer.println("unknown render mode: " + args[i]);
+                    return;
+                }
+                modes |= 1 << index;
+            }
+            mRenderModes = modes;
+        }
+        writer.println("render modes: " + describeRenderModes(mRenderModes));
+        mRenderStats.dump(writer);
+    }
+
+    // The names of the render mode bits set in modes, "none" for none.
+    static String describeRenderModes(int modes) {
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < RENDER_MODE_NAMES.length; i++) {
+            if ((modes & 1 << i) != 0) {
+                names.append(names.length() == 0 ? "" : " ").append(RENDER_MODE_NAMES[i]);
+            }
+        }
+        return names.length() == 0 ? "none" : names.toString();
+    }
+
+    class Engine extends CanvasWatchFaceService.Engine implements
+            ConfigTransport.Receiver, BackgroundDecoder.Callback, FramePreparer.Callback {
 
 
         static final int MSG_UPDATE_TIME = 0;
 
-        // How often mUpdateTimeHandler ticks in milliseconds.
-        long mInteractiveUpdateRateMs = NORMAL_UPDATE_RATE_MS;
+        static final int MSG_APPLY_CONFIG = 1;
 
-        // Handler to update the time periodically in interactive mode.
+        // the lines drawn into the static layer for LAYERED_RENDERING
+        static final int MINUTE_LINES = TimeFormatter.CLOCK | TimeFormatter.PERIOD
+                | TimeFormatter.TIMEZONE | TimeFormatter.DATESTAMP;
+
+        // Handler to update the time in interactive mode. It wakes up only when the text of a
+        // visible line changes, at the end of the frame model on screen: every second while
+        // the timestamp or epoch can be seen, every minute while a card covers them. See
+        // scheduleNextFrame(). It also applies the config updates, see onConfigReceived().
         final Handler mUpdateTimeHandler = new Handler() {
             @Override
             public void handleMessage(Message message) {
@@ -92,78 +182,109 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     case MSG_UPDATE_TIME:
                         //Log.v(TAG, "updating time");
                         invalidate();
-                        if (shouldTimerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs =
-                                    mInteractiveUpdateRateMs - (timeMs % mInteractiveUpdateRateMs);
-                            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                        break;
+                    case MSG_APPLY_CONFIG:
+                        WatchFaceConfig config = mConfigCoalescer.take();
+                        if (config != null) {
+                            applyConfig(config);
                         }
                         break;
                 }
             }
         };
 
-        GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(WatchFaceService.this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
+        // connected from onCreate() to onDestroy(), see DataLayerConnection
+        final DataLayerConfigTransport mConfigTransport =
+                new DataLayerConfigTransport(WatchFaceService.this, mRenderStats.dataChanged);
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 TimeZone tz = TimeZone.getTimeZone(intent.getStringExtra("time-zone"));
+                // the minute boundaries moved with the offset, the model prepared for the new
+                // zone ends on the new ones
                 updateTimeZone(tz);
             }
         };
 
-        private static final String TIME_FORMAT_12 = "h:mm";
+        WatchFaceStyle shortCards;
+
+        WatchFaceStyle variableCards;
 
-        private static final String TIME_FORMAT_24 = "H:mm";
+        // formats, measures and lays out the lines ahead of time on its own thread
+        FramePreparer mFramePreparer;
 
-        private static final String PERIOD_FORMAT = "a";
+        // the model on screen, handed over by mFramePreparer, see takeFrameModel()
+        FrameModel mFrameModel = new FrameModel();
 
-        private static final String TIMEZONE_FORMAT = "zzz";
+        // decoded off the UI thread at the surface size, mBackgroundPaint's color until then,
+        // or a single tile of it for TILED_BACKGROUND
+        Bitmap mBackgroundScaledBitmap;
 
-        private static final String DATESTAMP_FORMAT = "EEE, dd MMM yyyy";
+        // surface size mBackgroundScaledBitmap was decoded for
+        int mBackgroundWidth;
 
-        private static final String TIMESTAMP_FORMAT = "HH:mm:ss Z";
+        int mBackgroundHeight;
 
-        Date mDate;
+        BackgroundDecoder mBackgroundDecoder;
 
-        Rect cardPeekRectangle = new Rect(0, 0, 0, 0);
+        // repeats the tile and lays the vignette over it, only for TILED_BACKGROUND
+        Paint mBackgroundTilePaint;
 
-        WatchFaceStyle shortCards;
+        // offscreen layers for LAYERED_RENDERING, see drawLayered()
+        Bitmap mStaticLayer;
 
-        WatchFaceStyle variableCards;
+        Canvas mStaticCanvas;
 
-        SimpleDateFormat timeSdf;
+        Bitmap mFrameLayer;
 
-        SimpleDateFormat periodSdf;
+        Canvas mFrameCanvas;
 
-        SimpleDateFormat timezoneSdf;
+        boolean mStaticLayerDirty = true;
 
-        SimpleDateFormat dateStampSdf;
+        // the rows of the frame layer the timestamp and epoch were last drawn in
+        final Rect mTimestampRow = new Rect();
 
-        SimpleDateFormat timeStampSdf;
+        final Rect mEpochRow = new Rect();
 
-        Bitmap mBackgroundBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.kevlar);
+        final Rect mDirtyRow = new Rect();
 
-        Bitmap mBackgroundScaledBitmap;
+        // holds the ambient frame rendered ahead of time for AMBIENT_PRERENDER, see
+        // prerenderAmbientFrame()
+        AmbientRenderer mAmbientRenderer;
 
-        Paint mBackgroundPaint;
+        int mSurfaceWidth;
+
+        int mSurfaceHeight;
 
-        Paint mClockPaint;
+        // the render mode bits in effect, see updateRenderModes()
+        int mActiveRenderModes;
 
-        Paint mPeriodPaint;
+        // null unless GLYPH_ATLAS_RENDERING, see updateGlyphAtlases()
+        GlyphAtlas mClockAtlas;
+
+        GlyphAtlas mTimestampAtlas;
+
+        GlyphAtlas mEpochAtlas;
+
+        String mEpochGlyphs;
+
+        // time spent in drawBackground() since the last recordDraw()
+        long mBackgroundNanos;
+
+        long mLastRenderStatsExportMs;
+
+        Paint mBackgroundPaint;
 
-        Paint mTimezonePaint;
+        // the text paints for each mode, rebuilt rather than changed, see updatePaints()
+        PaintSet mInteractivePaints;
 
-        Paint mDatestampPaint;
+        PaintSet mAmbientPaints;
 
-        Paint mTimestampPaint;
+        // in px, in the order of the TimeFormatter line bits
+        final float[] mTextSizes = new float[6];
 
-        Paint mEpochPaint;
+        Paint.Align mTextAlign = Paint.Align.LEFT;
 
         int mInteractiveTextColor = ContextCompat.getColor(getBaseContext(), R.color.white);
 
@@ -177,63 +298,75 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
         float mPadding;
 
-        boolean clockDim;
+        // the settings from the companion app
+        WatchFaceConfig mConfig = WatchFaceConfig.DEFAULT;
 
-        boolean periodDim;
-
-        boolean tzDim;
+        // holds the latest config received while MSG_APPLY_CONFIG is pending
+        final ConfigCoalescer mConfigCoalescer = new ConfigCoalescer(
+                new ConfigCoalescer.Scheduler() {
+                    @Override
+                    public void schedule(long delayMs) {
+                        mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_APPLY_CONFIG, delayMs);
+                    }
+                });
 
-        boolean dateDim;
+        final ConfigTraceRecorder mConfigTrace = new ConfigTraceRecorder(mRenderStats);
 
-        boolean timeDim;
+        // how many times updatePaints() handed mFramePreparer new paints
+        int mPaintsVersion;
 
-        boolean epochDim;
+        ConfigWriter mConfigWriter;
 
         boolean interactiveTzState;
 
-        int timestampTz;
-
         boolean mIsMute;
 
         boolean mIsLowBitAmbient;
 
         boolean mIsRound;
 
+        boolean mIs24Hour;
+
         boolean mRegisteredTimeZoneReceiver = false;
 
+        // the zone mFramePreparer formats in, its offsets are cached there until it changes
+        TimeZone mLocalTz = TimeZone.getDefault();
 
+        // Catches up with a zone change missed while mTimeZoneReceiver wasn't registered.
+        // getDefault() returns a new instance every time, an equal one is no change.
         private void updateTimeZone() {
-            updateTimeZone(TimeZone.getDefault());
+            TimeZone tz = TimeZone.getDefault();
+            if (!tz.getID().equals(mLocalTz.getID()) || !tz.hasSameRules(mLocalTz)) {
+                updateTimeZone(tz);
+            }
         }
 
         private void updateTimeZone(TimeZone localTz) {
-            timeSdf.setTimeZone(localTz);
-            periodSdf.setTimeZone(localTz);
-            timezoneSdf.setTimeZone(localTz);
-            dateStampSdf.setTimeZone(localTz);
-
-            updateTimestampTz(localTz);
+            mLocalTz = localTz;
+            mFramePreparer.setTimeZone(localTz);
 
-            mDate.setTime(System.currentTimeMillis());
+            updateTimestampTz();
         }
 
-        private void updateTimestampTz(TimeZone localTz) {
-            TimeZone utcTz = new SimpleTimeZone(0, "UTC");
-            switch (timestampTz) {
+        private void updateTimestampTz() {
+            // the formatter starts over, so does the frame rendered ahead with it
+            mAmbientRenderer.discard();
+            switch (mConfig.timestampTz) {
                 case WatchFaceUtil.LOCAL:
-                    timeStampSdf.setTimeZone(localTz);
+                    mFramePreparer.setTimestampTimeZone(mLocalTz);
                     break;
                 case WatchFaceUtil.UTC:
-                    timeStampSdf.setTimeZone(utcTz);
+                    mFramePreparer.setTimestampTimeZone(UTC_ZONE);
                     break;
                 case WatchFaceUtil.INTERACTIVE:
                     if (interactiveTzState) {
-                        timeStampSdf.setTimeZone(utcTz);
+                        mFramePreparer.setTimestampTimeZone(UTC_ZONE);
                     } else {
-                        timeStampSdf.setTimeZone(localTz);
+                        mFramePreparer.setTimestampTimeZone(mLocalTz);
                     }
                     break;
             }
+            mFramePreparer.prepareNow();
         }
 
         @Override
@@ -268,14 +401,13 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true);
 
             // Adjust the layout style for 12 vs 24 hour time
-            if (DateFormat.is24HourFormat(getApplicationContext())) {
-                timeSdf = new SimpleDateFormat(TIME_FORMAT_24);
+            mIs24Hour = DateFormat.is24HourFormat(getApplicationContext());
+            if (mIs24Hour) {
                 variableBuilder.setStatusBarGravity(Gravity.TOP | Gravity.RIGHT);
                 variableBuilder.setHotwordIndicatorGravity(Gravity.TOP | Gravity.LEFT);
                 shortBuilder.setStatusBarGravity(Gravity.TOP | Gravity.RIGHT);
                 shortBuilder.setHotwordIndicatorGravity(Gravity.BOTTOM | Gravity.RIGHT);
             } else {
-                timeSdf = new SimpleDateFormat(TIME_FORMAT_12);
                 variableBuilder.setStatusBarGravity(Gravity.TOP | Gravity.LEFT);
                 variableBuilder.setHotwordIndicatorGravity(Gravity.TOP | Gravity.LEFT);
                 shortBuilder.setStatusBarGravity(Gravity.TOP | Gravity.LEFT);
@@ -286,11 +418,13 @@ public class WatchFaceService extends CanvasWatchFaceService {
             variableCards = variableBuilder.build();
             shortCards = shortBuilder.build();
 
+            // initial setup, load persisted or default values, can be overridden by companion app
+            WatchFaceConfig config = WatchFaceUtil.readConfig(getApplicationContext());
+            mConfig = config;
+            mConfigWriter = new ConfigWriter(getApplicationContext());
+
             // Set the style accordingly
-            boolean useShortCards = WatchFaceUtil
-                    .getBoolean(getApplicationContext(), WatchFaceUtil.KEY_USE_SHORT_CARDS,
-                            WatchFaceUtil.KEY_USE_SHORT_CARDS_DEF);
-            if (useShortCards) {
+            if (config.useShortCards) {
                 Log.d(TAG, "Using short notification cards");
                 setWatchFaceStyle(shortCards);
             } else {
@@ -298,90 +432,58 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 setWatchFaceStyle(variableCards);
             }
 
-            //date formatters
-            periodSdf = new SimpleDateFormat(PERIOD_FORMAT);
-            timezoneSdf = new SimpleDateFormat(TIMEZONE_FORMAT);
-            dateStampSdf = new SimpleDateFormat(DATESTAMP_FORMAT);
-            timeStampSdf = new SimpleDateFormat(TIMESTAMP_FORMAT);
+            //date formatter
+            String epochLabel = getResources().getString(R.string.epoch);
+            mFramePreparer = new FramePreparer(epochLabel, mIs24Hour, Locale.getDefault(),
+                    mClock, mRenderStats, this);
+            mEpochGlyphs = GlyphAtlas.DIGITS + " " + epochLabel;
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(mBackgroundColor);
-            mClockPaint = createTextPaint(mInteractiveTextColor);
-            mPeriodPaint = createTextPaint(mInteractiveTextColor);
-            mTimezonePaint = createTextPaint(mInteractiveTextColor);
-            mDatestampPaint = createTextPaint(mAmbientTextColor);
-            mTimestampPaint = createTextPaint(mAmbientTextColor);
-            mEpochPaint = createTextPaint(mAmbientTextColor);
-
-            // initial setup, load persisted or default values, can be overridden by companion app
-            Context context = getApplicationContext();
-            float clockSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_CLOCK_SIZE,
-                    WatchFaceUtil.KEY_CLOCK_SIZE_DEF);
-            float markerSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_MARKER_SIZE,
-                    WatchFaceUtil.KEY_MARKER_SIZE_DEF);
-            float timezoneSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_TZ_SIZE,
-                    WatchFaceUtil.KEY_TZ_SIZE_DEF);
-            float datestampSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_DATE_SIZE,
-                    WatchFaceUtil.KEY_DATE_SIZE_DEF);
-            float timestampSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_TIME_SIZE,
-                    WatchFaceUtil.KEY_TIME_SIZE_DEF);
-            float epochSize = WatchFaceUtil.getInt(context, WatchFaceUtil.KEY_EPOCH_SIZE,
-                    WatchFaceUtil.KEY_EPOCH_SIZE_DEF);
+            mAmbientRenderer = new AmbientRenderer(mAmbientTextColor, mBackgroundColor);
 
             // set the text sizes scaled according to the screen density
             float density = getResources().getDisplayMetrics().density;
-            mClockPaint.setTextSize(clockSize * density);
-            mPeriodPaint.setTextSize(markerSize * density);
-            mTimezonePaint.setTextSize(timezoneSize * density);
-            mDatestampPaint.setTextSize(datestampSize * density);
-            mTimestampPaint.setTextSize(timestampSize * density);
-            mEpochPaint.setTextSize(epochSize * density);
-
-            clockDim = WatchFaceUtil.getBoolean(context, WatchFaceUtil.KEY_CLOCK_DIM,
-                    WatchFaceUtil.KEY_CLOCK_DIM_DEF);
-            periodDim = WatchFaceUtil.getBoolean(context, WatchFaceUtil.KEY_MARKER_DIM,
-                    WatchFaceUtil.KEY_MARKER_DIM_DEF);
-            tzDim = WatchFaceUtil
-                    .getBoolean(context, WatchFaceUtil.KEY_TZ_DIM, WatchFaceUtil.KEY_TZ_DIM_DEF);
-            dateDim = WatchFaceUtil.getBoolean(context, WatchFaceUtil.KEY_DATE_DIM,
-                    WatchFaceUtil.KEY_DATE_DIM_DEF);
-            timeDim = WatchFaceUtil.getBoolean(context, WatchFaceUtil.KEY_TIME_DIM,
-                    WatchFaceUtil.KEY_TIME_DIM_DEF);
-            epochDim = WatchFaceUtil.getBoolean(context, WatchFaceUtil.KEY_EPOCH_DIM,
-                    WatchFaceUtil.KEY_EPOCH_DIM_DEF);
-
-            timestampTz = WatchFaceUtil
-                    .getInt(context, WatchFaceUtil.KEY_TIME_TZ, WatchFaceUtil.KEY_TIME_TZ_DEF);
-
-            mDate = new Date();
+            mTextSizes[0] = config.clockSize * density;
+            mTextSizes[1] = config.markerSize * density;
+            mTextSizes[2] = config.tzSize * density;
+            mTextSizes[3] = config.dateSize * density;
+            mTextSizes[4] = config.timeSize * density;
+            mTextSizes[5] = config.epochSize * density;
+            mActiveRenderModes = mRenderModes;
+            updatePaints();
+            // onVisibilityChanged() only checks for a different zone from now on
+            updateTimeZone(mLocalTz);
+
+            mConfigTransport.setReceiver(this);
+            mConfigTransport.connect();
         }
 
         @Override
         public void onDestroy() {
             Log.d(TAG, "onDestroy");
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mUpdateTimeHandler.removeMessages(MSG_APPLY_CONFIG);
+            mConfigCoalescer.clear();
+            mFramePreparer.quit();
+            mConfigWriter.quit();
+            mConfigTransport.setReceiver(null);
+            mConfigTransport.close();
+            recycleLayers();
+            mAmbientRenderer.recycle();
+            recycleGlyphAtlases();
+            recycleBackground();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int defaultInteractiveColor) {
-            return createTextPaint(defaultInteractiveColor, NORMAL_TYPEFACE);
-        }
-
-        private Paint createTextPaint(int defaultInteractiveColor, Typeface typeface) {
-            Paint paint = new Paint();
-            paint.setColor(defaultInteractiveColor);
-            paint.setTypeface(typeface);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             Log.d(TAG, "onVisibilityChanged: " + visible);
             super.onVisibilityChanged(visible);
 
             if (visible) {
-                mGoogleApiClient.connect();
+                // in case the connection failed, a no-op otherwise
+                mConfigTransport.connect();
 
                 registerReceiver();
 
@@ -391,9 +493,9 @@ public class WatchFaceService extends CanvasWatchFaceService {
             } else {
                 unregisterReceiver();
 
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
+                // the connection stays up, the listener keeps the config current meanwhile
+                if (mConfigTransport.getConnection().isConnected()) {
+                    exportRenderStats();
                 }
             }
 
@@ -419,6 +521,17 @@ public class WatchFaceService extends CanvasWatchFaceService {
             WatchFaceService.this.unregisterReceiver(mTimeZoneReceiver);
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mSurfaceWidth = width;
+            mSurfaceHeight = height;
+            loadBackground(width, height);
+            mFramePreparer.setSurface(mIsRound, width);
+            invalidateFrames();
+            mFramePreparer.prepareNow();
+        }
+
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             Log.d(TAG, "onApplyWindowInsets: " + (insets.isRound() ? "round" : "square"));
@@ -434,25 +547,20 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 mYOffset = resources.getDimension(R.dimen.y_offset_round);
                 mPadding = resources.getDimension(R.dimen.padding);
 
-                mClockPaint.setTextAlign(Paint.Align.CENTER);
-                mPeriodPaint.setTextAlign(Paint.Align.CENTER);
-                mTimezonePaint.setTextAlign(Paint.Align.CENTER);
-                mDatestampPaint.setTextAlign(Paint.Align.CENTER);
-                mTimestampPaint.setTextAlign(Paint.Align.CENTER);
-                mEpochPaint.setTextAlign(Paint.Align.CENTER);
+                mTextAlign = Paint.Align.CENTER;
             } else {
                 // dimensions and alignment for square watches
                 mXOffset = resources.getDimension(R.dimen.x_offset);
                 mYOffset = resources.getDimension(R.dimen.y_offset);
                 mPadding = resources.getDimension(R.dimen.padding);
 
-                mClockPaint.setTextAlign(Paint.Align.RIGHT);
-                mPeriodPaint.setTextAlign(Paint.Align.RIGHT);
-                mTimezonePaint.setTextAlign(Paint.Align.RIGHT);
-                mDatestampPaint.setTextAlign(Paint.Align.RIGHT);
-                mTimestampPaint.setTextAlign(Paint.Align.RIGHT);
-                mEpochPaint.setTextAlign(Paint.Align.RIGHT);
+                mTextAlign = Paint.Align.RIGHT;
             }
+            updatePaints();
+            mFramePreparer.setSurface(mIsRound, mSurfaceWidth);
+            mFramePreparer.setOffsets(mXOffset, mYOffset, mPadding);
+            invalidateFrames();
+            mFramePreparer.prepareNow();
         }
 
         @Override
@@ -465,7 +573,10 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             Log.d(TAG, "onPropertiesChanged: burn-in protection = " + burnInProtection
                     + ", low-bit ambient = " + mIsLowBitAmbient);
-
+            // the frames rendered ahead, the ambient one in particular, used the old paints
+            updatePaints();
+            invalidateFrames();
+            mFramePreparer.prepareNow();
         }
 
         @Override
@@ -480,19 +591,21 @@ public class WatchFaceService extends CanvasWatchFaceService {
             super.onPeekCardPositionUpdate(rect);
             Log.d(TAG, "onPeekCardPositionUpdate: " + rect);
 
-            cardPeekRectangle = rect;
-
-            invalidate();
+            // the card may have covered or uncovered the lines that change every second, the
+            // model prepared for it comes with a new end and is drawn as soon as it is ready
+            mFramePreparer.setPeekTop(rect.top);
+            invalidateFrames();
+            mFramePreparer.prepareNow();
         }
 
         @Override
         public void onTapCommand(int tapType, int x, int y, long eventTime) {
             switch(tapType) {
                 case TAP_TYPE_TAP:
-                    if (timestampTz == WatchFaceUtil.INTERACTIVE) {
+                    if (mConfig.timestampTz == WatchFaceUtil.INTERACTIVE) {
                         // toggle UTC timezone
                         interactiveTzState = !interactiveTzState;
-                        updateTimestampTz(TimeZone.getDefault());
+                        updateTimestampTz();
                     }
                     break;
                 default:
@@ -506,39 +619,21 @@ public class WatchFaceService extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             Log.d(TAG, "onAmbientModeChanged: " + inAmbientMode);
 
-            adjustPaintColorToCurrentMode(mClockPaint, mInteractiveTextColor, mAmbientTextColor);
-            adjustPaintColorToCurrentMode(mPeriodPaint, mInteractiveTextColor, mAmbientTextColor);
-            adjustPaintColorToCurrentMode(mTimezonePaint, mInteractiveTextColor, mAmbientTextColor);
-
-            // these are always ambient
-            //adjustPaintColorToCurrentMode(mDatestampPaint, mInteractiveTextColor, mAmbientTextColor);
-            //adjustPaintColorToCurrentMode(mTimestampPaint, mInteractiveTextColor, mAmbientTextColor);
-            //adjustPaintColorToCurrentMode(mEpochPaint, mInteractiveTextColor, mAmbientTextColor);
-            //adjustPaintColorToCurrentMode(mEpochLabelPaint, mInteractiveTextColor, mAmbientTextColor);
-
-            // When this property is set to true, the screen supports fewer bits for each color in
-            // ambient mode. In this case, watch faces should disable anti-aliasing in ambient mode.
-            if (mIsLowBitAmbient) {
-                boolean antiAlias = !inAmbientMode;
-                mClockPaint.setAntiAlias(antiAlias);
-                mPeriodPaint.setAntiAlias(antiAlias);
-                mTimezonePaint.setAntiAlias(antiAlias);
-                mDatestampPaint.setAntiAlias(antiAlias);
-                mTimestampPaint.setAntiAlias(antiAlias);
-                mEpochPaint.setAntiAlias(antiAlias);
+            // each mode has its own paints, see updatePaints(); glyph atlases are only used in
+            // interactive mode and measure differently, the model prepared for the mode is drawn
+            // as soon as it is ready
+            mFramePreparer.setAmbient(inAmbientMode);
+            invalidateFrames();
+            if (!inAmbientMode) {
+                mAmbientRenderer.recycle();
             }
-            invalidate();
+            mFramePreparer.prepareNow();
 
             // Whether the timer should be running depends on whether we're in ambient mode (as well
             // as whether we're visible), so we may need to start or stop the timer.
             updateTimer();
         }
 
-        private void adjustPaintColorToCurrentMode(Paint paint, int interactiveColor,
-                int ambientColor) {
-            paint.setColor(isInAmbientMode() ? ambientColor : interactiveColor);
-        }
-
         @Override
         public void onInterruptionFilterChanged(int interruptionFilter) {
             Log.d(TAG, "onInterruptionFilterChanged: " + interruptionFilter);
@@ -555,186 +650,449 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            long startNanos = System.nanoTime();
 
-            // where the magic happens...
-            mDate.setTime(System.currentTimeMillis());
-
+            // where the magic happens... nothing below allocates, this runs every second, and
+            // the lines were formatted and laid out ahead of time by mFramePreparer
+            long timeMs = mClock.currentTimeMillis();
             int width = bounds.width();
             int height = bounds.height();
-
-            // Draw the background.
-            if (isInAmbientMode()) {
-                // black background
-                canvas.drawRect(0, 0, width, height, mBackgroundPaint);
-            } else {
-                if (mBackgroundScaledBitmap == null
-                        || mBackgroundScaledBitmap.getWidth() != width
-                        || mBackgroundScaledBitmap.getHeight() != height) {
-                    mBackgroundScaledBitmap = Bitmap
-                            .createScaledBitmap(mBackgroundBitmap, width, height, true);
+            boolean ambient = isInAmbientMode();
+            updateRenderModes();
+            int changed = takeFrameModel(timeMs);
+            FrameModel model = mFrameModel;
+
+            if (model.isEmpty()) {
+                // nothing prepared yet
+                drawBackground(canvas, width, height, ambient);
+            } else if (ambient) {
+                if (mAmbientRenderer.hasFrame(timeMs, width, height)) {
+                    // the minute tick, everything was done ahead of time
+                    mAmbientRenderer.draw(canvas);
+                } else {
+                    drawAmbient(canvas, model, width, height);
                 }
-                // fancy image background
-                canvas.drawBitmap(mBackgroundScaledBitmap, 0, 0, null);
+            } else if ((mActiveRenderModes & LAYERED_RENDERING) != 0) {
+                drawLayered(canvas, model, width, height, changed);
+            } else {
+                // fancy image background, draw everything
+                drawBackground(canvas, width, height, false);
+                drawMinuteLines(canvas, model, false);
+                drawSecondLines(canvas, model, false);
+            }
+            scheduleNextFrame(timeMs);
+            if (!model.isEmpty()) {
+                mConfigTrace.drawn(model.paintsVersion);
             }
 
-            // Update the strings
-            String clockString = timeSdf.format(mDate);
-            String periodString = periodSdf.format(mDate);
-            String timezoneString = timezoneSdf.format(mDate);
-            String datestampString = dateStampSdf.format(mDate);
-            String timestampString = timeStampSdf.format(mDate);
-            String epochString = getResources().getString(R.string.epoch) + " " + String.valueOf(
-                    mDate.getTime() / 1000);
+            long frameNanos = System.nanoTime() - startNanos;
+            mRenderStats.phase(ambient, RenderStats.FRAME).record(frameNanos);
+            recordDraw(ambient, frameNanos);
+        }
 
-            float xClock, yClock;
-            float xPeriod, yPeriod;
-            float xTimezone, yTimezone;
-            float xDatestamp, yDatestamp;
-            float xTimestamp, yTimestamp;
-            float xEpoch, yEpoch;
+        // Swaps in the model mFramePreparer has waiting if its time has come and has it prepare
+        // the one after. Returns the bits of the lines whose text changed since the model drawn
+        // before.
+        private int takeFrameModel(long timeMs) {
+            FrameModel pending = mFramePreparer.takePending();
+            if (pending == null) {
+                return 0;
+            }
+            if (pending.startMs > timeMs) {
+                mFramePreparer.restorePending(pending);
+                return 0;
+            }
+            mFramePreparer.release(mFrameModel);
+            mFrameModel = pending;
+            if (pending.layoutChanged) {
+                mStaticLayerDirty = true;
+            }
+            mFramePreparer.prepareNext();
+            return pending.changed;
+        }
 
-            // calculate text paint bounds
-            Rect periodBounds = new Rect();
-            mPeriodPaint.getTextBounds(periodString, 0, periodString.length(), periodBounds);
+        // Wakes the interactive timer up when the model on screen runs out. If it already has,
+        // the clock jumped or the next model is late, so one is prepared for right now instead.
+        private void scheduleNextFrame(long timeMs) {
+            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            FrameModel model = mFrameModel;
+            if (!model.covers(timeMs)) {
+                mFramePreparer.prepareNow();
+            } else if (shouldTimerBeRunning()) {
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME,
+                        model.endMs - timeMs);
+            }
+        }
 
-            Rect timezoneBounds = new Rect();
-            mTimezonePaint
-                    .getTextBounds(timezoneString, 0, timezoneString.length(), timezoneBounds);
+        @Override
+        public void onFrameModelReady() {
+            FrameModel pending = mFramePreparer.takePending();
+            if (pending == null) {
+                // already taken or taken back
+                return;
+            }
+            long startMs = pending.startMs;
+            boolean due = startMs <= mClock.currentTimeMillis();
+            if ((mActiveRenderModes & AMBIENT_PRERENDER) != 0 && !due && isInAmbientMode()) {
+                // while the CPU is still awake for this frame
+                prerenderAmbientFrame(pending);
+            }
+            mFramePreparer.restorePending(pending);
+            if (due) {
+                invalidate();
+            }
+        }
+
+        // Records the part of nanos not spent drawing the background as the draw phase.
+        private void recordDraw(boolean ambient, long nanos) {
+            mRenderStats.phase(ambient, RenderStats.DRAW).record(nanos - mBackgroundNanos);
+            mBackgroundNanos = 0;
+        }
+
+        // Black background, draw only the lines enabled for ambient.
+        private void drawAmbient(Canvas canvas, FrameModel model, int width, int height) {
+            drawBackground(canvas, width, height, true);
+            drawMinuteLines(canvas, model, true);
+            drawSecondLines(canvas, model, true);
+        }
+
+        // Renders the ambient frame for the next minute's model, which the tick then only has
+        // to put on the screen. Runs as soon as that model is prepared, right after the current
+        // minute's frame was drawn. The solid background isn't part of it.
+        private void prerenderAmbientFrame(FrameModel model) {
+            int width = mSurfaceWidth;
+            int height = mSurfaceHeight;
+            if (!isVisible() || width == 0 || height == 0
+                    || mAmbientRenderer.hasFrame(model.startMs, width, height)) {
+                return;
+            }
+            if (model.paintsVersion != mPaintsVersion) {
+                // measured with the paints before updatePaints(), the model measured with the
+                // current ones follows
+                return;
+            }
 
-            Rect clockBounds = new Rect();
-            mClockPaint.getTextBounds(clockString, 0, clockString.length(), clockBounds);
+            long startNanos = System.nanoTime();
+            Canvas canvas = mAmbientRenderer.begin(width, height);
+            drawMinuteLines(canvas, model, true);
+            drawSecondLines(canvas, model, true);
+            mAmbientRenderer.end(model.startMs, model.endMs);
+            recordDraw(true, System.nanoTime() - startNanos);
+        }
 
-            Rect datestampBounds = new Rect();
-            mDatestampPaint.getTextBounds(datestampString, 0, datestampString.length(),
-                    datestampBounds);
+        // Switches to the render modes last set on the service, dropping what the modes turned
+        // off kept around. The frames rendered ahead of time are redone for the new modes.
+        private void updateRenderModes() {
+            int modes = mRenderModes;
+            int switched = modes ^ mActiveRenderModes;
+            if (switched == 0) {
+                return;
+            }
+            Log.d(TAG, "updateRenderModes: " + describeRenderModes(modes));
+            mActiveRenderModes = modes;
+            if ((modes & LAYERED_RENDERING) == 0) {
+                recycleLayers();
+            }
+            if ((switched & GLYPH_ATLAS_RENDERING) != 0) {
+                recycleGlyphAtlases();
+                if ((modes & GLYPH_ATLAS_RENDERING) != 0) {
+                    updateGlyphAtlases();
+                } else {
+                    mFramePreparer.setGlyphAtlases(null, null, null);
+                }
+                // the lines measure differently with or without them
+                mFramePreparer.prepareNow();
+            }
+            if ((switched & TILED_BACKGROUND) != 0) {
+                // decoded for the other mode, loaded again by the next drawBackground()
+                recycleBackground();
+            }
+            invalidateFrames();
+        }
 
-            Rect timestampBounds = new Rect();
-            mTimestampPaint.getTextBounds(timestampString, 0, timestampString.length(),
-                    timestampBounds);
+        // Throws away everything rendered ahead of time, for changes other than the time.
+        private void invalidateFrames() {
+            mStaticLayerDirty = true;
+            mAmbientRenderer.discard();
+        }
 
-            Rect epochBounds = new Rect();
-            mEpochPaint.getTextBounds(epochString, 0, epochString.length(), epochBounds);
+        // Draws the interactive face from two offscreen layers. The static layer holds the
+        // background and the lines that change at most once a minute and is only redrawn when
+        // one of them changes. The frame layer is the static layer plus the timestamp and epoch,
+        // and on a normal tick only the rows of those two lines are restored from the static
+        // layer and redrawn.
+        private void drawLayered(Canvas canvas, FrameModel model, int width, int height,
+                int changed) {
+            if (mStaticLayer == null || mStaticLayer.getWidth() != width
+                    || mStaticLayer.getHeight() != height) {
+                recycleLayers();
+                mStaticLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mStaticCanvas = new Canvas(mStaticLayer);
+                mFrameLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mFrameCanvas = new Canvas(mFrameLayer);
+                mStaticLayerDirty = true;
+            }
 
-            // calculate offsets
-            if (mIsRound) {
-                // round offsets == align center
-                xClock = (width / 2) - (Math.max(periodBounds.width(), timezoneBounds.width()) / 2);
-                yClock = 0 + mYOffset + clockBounds.height();
+            if (mStaticLayerDirty || (changed & MINUTE_LINES) != 0) {
+                mStaticLayerDirty = false;
+                drawBackground(mStaticCanvas, width, height, false);
+                drawMinuteLines(mStaticCanvas, model, false);
 
-                xPeriod = xClock + clockBounds.width() / 2 + mPadding + periodBounds.width() / 2;
-                yPeriod = 0 + mYOffset + clockBounds.height() / 2 - (
-                        (clockBounds.height() / 2 - periodBounds.height()) / 2);
+                mFrameCanvas.drawBitmap(mStaticLayer, 0, 0, null);
+                drawSecondLines(mFrameCanvas, model, false);
+                setRow(mTimestampRow, width, model.yTimestamp, model.timestampBounds);
+                setRow(mEpochRow, width, model.yEpoch, model.epochBounds);
+            } else {
+                if ((changed & TimeFormatter.TIMESTAMP) != 0) {
+                    redrawRow(mTimestampRow, width, model.timestamp, model.xTimestamp,
+                            model.yTimestamp, model.timestampBounds,
+                            (model.visibleLines & TimeFormatter.TIMESTAMP) != 0,
+                            mInteractivePaints.timestamp, mTimestampAtlas);
+                }
+                if ((changed & TimeFormatter.EPOCH) != 0) {
+                    redrawRow(mEpochRow, width, model.epoch, model.xEpoch, model.yEpoch,
+                            model.epochBounds, (model.visibleLines & TimeFormatter.EPOCH) != 0,
+                            mInteractivePaints.epoch, mEpochAtlas);
+                }
+            }
 
-                xTimezone = xClock + clockBounds.width() / 2 + mPadding
-                        + timezoneBounds.width() / 2;
-                yTimezone = 0 + mYOffset + clockBounds.height() / 2 + (
-                        (clockBounds.height() / 2 - timezoneBounds.height()) / 2) + timezoneBounds
-                        .height();
+            canvas.drawBitmap(mFrameLayer, 0, 0, null);
+        }
 
-                xDatestamp = width / 2;
-                yDatestamp = yClock + mPadding + datestampBounds.height();
+        // Restores the part of the frame layer covered by the line's previous and current text
+        // from the static layer, then draws the current text on top of it.
+        private void redrawRow(Rect row, int width, TextLine line, float x, float y,
+                Rect textBounds, boolean visible, Paint paint, GlyphAtlas atlas) {
+            Rect dirty = mDirtyRow;
+            dirty.set(row);
+            setRow(row, width, y, textBounds);
+            dirty.union(row);
+            mFrameCanvas.drawBitmap(mStaticLayer, dirty, dirty, null);
+            if (visible) {
+                drawLine(mFrameCanvas, line, x, y, paint, atlas);
+            }
+        }
 
-                xTimestamp = width / 2;
-                yTimestamp = yDatestamp + mPadding + timestampBounds.height();
+        // The full width band a line drawn at baseline y covers, with a pixel of slack for
+        // anti-aliasing.
+        private void setRow(Rect row, int width, float y, Rect textBounds) {
+            row.set(0, (int) y + textBounds.top - 1, width, (int) y + textBounds.bottom + 2);
+        }
 
-                xEpoch = width / 2;
-                yEpoch = yTimestamp + mPadding * 2 + epochBounds.height();
+        private void recycleLayers() {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+                mStaticCanvas = null;
+            }
+            if (mFrameLayer != null) {
+                mFrameLayer.recycle();
+                mFrameLayer = null;
+                mFrameCanvas = null;
+            }
+        }
 
+        private void drawBackground(Canvas canvas, int width, int height, boolean ambient) {
+            long startNanos = System.nanoTime();
+            if (ambient || !hasBackground(width, height)) {
+                // solid background until the image is decoded for this size
+                canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+                if (!ambient) {
+                    loadBackground(width, height);
+                }
+            } else if ((mActiveRenderModes & TILED_BACKGROUND) != 0) {
+                canvas.drawRect(0, 0, width, height, mBackgroundTilePaint);
             } else {
-                // square offsets == align right
-                xPeriod = width - mXOffset;
-                yPeriod = 0 + mYOffset + clockBounds.height() / 2 - (
-                        (clockBounds.height() / 2 - periodBounds.height()) / 2);
+                canvas.drawBitmap(mBackgroundScaledBitmap, 0, 0, null);
+            }
+            long nanos = System.nanoTime() - startNanos;
+            mRenderStats.phase(ambient, RenderStats.BACKGROUND).record(nanos);
+            mBackgroundNanos += nanos;
+        }
 
-                xTimezone = width - mXOffset;
-                yTimezone = 0 + mYOffset + clockBounds.height() / 2 + (
-                        (clockBounds.height() / 2 - timezoneBounds.height()) / 2) + timezoneBounds
-                        .height();
+        // Cancels the decoding and drops the decoded background.
+        private void recycleBackground() {
+            if (mBackgroundDecoder != null) {
+                mBackgroundDecoder.cancel(false);
+                mBackgroundDecoder = null;
+            }
+            if (mBackgroundScaledBitmap != null) {
+                mBackgroundScaledBitmap.recycle();
+                mBackgroundScaledBitmap = null;
+            }
+            mBackgroundTilePaint = null;
+        }
 
-                xClock = xTimezone - mPadding - Math
-                        .max(periodBounds.width(), timezoneBounds.width());
-                yClock = 0 + mYOffset + clockBounds.height();
+        private boolean hasBackground(int width, int height) {
+            return mBackgroundScaledBitmap != null
+                    && mBackgroundWidth == width
+                    && mBackgroundHeight == height;
+        }
 
-                xDatestamp = width - mXOffset;
-                yDatestamp = yClock + mPadding + datestampBounds.height();
+        // Starts decoding the background image for the given surface size, unless it is
+        // already decoded or being decoded for that size.
+        private void loadBackground(int width, int height) {
+            if (hasBackground(width, height)) {
+                return;
+            }
+            if (mBackgroundDecoder != null) {
+                if (mBackgroundDecoder.isDecoding(width, height)) {
+                    return;
+                }
+                mBackgroundDecoder.cancel(false);
+            }
+            if ((mActiveRenderModes & TILED_BACKGROUND) != 0) {
+                mBackgroundDecoder = new BackgroundDecoder(getResources(), R.drawable.kevlar,
+                        width, height, KEVLAR_TILE_WIDTH, KEVLAR_TILE_HEIGHT, this);
+            } else {
+                mBackgroundDecoder = new BackgroundDecoder(getResources(), R.drawable.kevlar,
+                        width, height, this);
+            }
+            mBackgroundDecoder.execute();
+        }
 
-                xTimestamp = width - mXOffset;
-                yTimestamp = yDatestamp + mPadding + timestampBounds.height();
+        @Override
+        public void onBackgroundDecoded(Bitmap background, int width, int height) {
+            mBackgroundDecoder = null;
+            if (mBackgroundScaledBitmap != null) {
+                mBackgroundScaledBitmap.recycle();
+            }
+            mBackgroundScaledBitmap = background;
+            mBackgroundWidth = width;
+            mBackgroundHeight = height;
+            if ((mActiveRenderModes & TILED_BACKGROUND) != 0) {
+                Shader tile = new BitmapShader(background, Shader.TileMode.REPEAT,
+                        Shader.TileMode.REPEAT);
+                Shader vignette = new RadialGradient(width / 2f, height / 2f,
+                        (float) Math.hypot(width, height) / 2, KEVLAR_VIGNETTE_COLORS,
+                        KEVLAR_VIGNETTE_STOPS, Shader.TileMode.CLAMP);
+                mBackgroundTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+                mBackgroundTilePaint.setShader(
+                        new ComposeShader(tile, vignette, PorterDuff.Mode.SRC_OVER));
+            }
+            mStaticLayerDirty = true;
+            invalidate();
+        }
 
-                xEpoch = width - mXOffset;
-                yEpoch = yTimestamp + mPadding * 3 + epochBounds.height();
+        // Draws the clock, period, time zone and date, the lines that change at most once a
+        // minute. In ambient mode only the ones enabled for ambient are drawn.
+        private void drawMinuteLines(Canvas canvas, FrameModel model, boolean ambient) {
+            PaintSet paints = ambient ? mAmbientPaints : mInteractivePaints;
+            int visible = model.visibleLines;
+            if ((!ambient || mConfig.clockDim) && (visible & TimeFormatter.CLOCK) != 0) {
+                drawLine(canvas, model.clock, model.xClock, model.yClock, paints.clock,
+                        ambient ? null : mClockAtlas);
+            }
+            if ((!ambient || mConfig.markerDim) && (visible & TimeFormatter.PERIOD) != 0) {
+                drawLine(canvas, model.period, model.xPeriod, model.yPeriod, paints.period,
+                        null);
             }
+            if ((!ambient || mConfig.tzDim) && (visible & TimeFormatter.TIMEZONE) != 0) {
+                drawLine(canvas, model.timezone, model.xTimezone, model.yTimezone,
+                        paints.timezone, null);
+            }
+            if ((!ambient || mConfig.dateDim) && (visible & TimeFormatter.DATESTAMP) != 0) {
+                drawLine(canvas, model.datestamp, model.xDatestamp, model.yDatestamp,
+                        paints.datestamp, null);
+            }
+        }
 
-//            Log.d(TAG, "xClock=" + xClock + ", yClock=" + yClock);
-//            Log.d(TAG, "xPeriod=" + xPeriod + ", yPeriod=" + yPeriod);
-//            Log.d(TAG, "xTimezone=" + xTimezone + ", yTimezone=" + yTimezone);
-//            Log.d(TAG, "xDatestamp=" + xDatestamp + ", yDatestamp=" + yDatestamp);
-//            Log.d(TAG, "xTimestamp=" + xTimestamp + ", yTimestamp=" + yTimestamp);
-//            Log.d(TAG, "xEpoch=" + xEpoch + ", yEpoch=" + yEpoch);
+        // Draws the timestamp and epoch, the lines that change every second.
+        private void drawSecondLines(Canvas canvas, FrameModel model, boolean ambient) {
+            PaintSet paints = ambient ? mAmbientPaints : mInteractivePaints;
+            int visible = model.visibleLines;
+            if ((!ambient || mConfig.timeDim) && (visible & TimeFormatter.TIMESTAMP) != 0) {
+                drawLine(canvas, model.timestamp, model.xTimestamp, model.yTimestamp,
+                        paints.timestamp, ambient ? null : mTimestampAtlas);
+            }
+            if ((!ambient || mConfig.epochDim) && (visible & TimeFormatter.EPOCH) != 0) {
+                drawLine(canvas, model.epoch, model.xEpoch, model.yEpoch, paints.epoch,
+                        ambient ? null : mEpochAtlas);
+            }
+        }
 
-            if (cardPeekRectangle.top == 0) {
-                cardPeekRectangle.top = height;
+        // Sends the render stats to the companion app, at most every
+        // RENDER_STATS_EXPORT_INTERVAL_MS.
+        private void exportRenderStats() {
+            long nowMs = SystemClock.elapsedRealtime();
+            if (mLastRenderStatsExportMs != 0
+                    && nowMs - mLastRenderStatsExportMs < RENDER_STATS_EXPORT_INTERVAL_MS) {
+                return;
             }
+            mLastRenderStatsExportMs = nowMs;
 
-            if (isInAmbientMode()) {
-                // draw these when ambient
-                if (clockDim) {
-                    if (yClock < cardPeekRectangle.top) {
-                        canvas.drawText(clockString, xClock, yClock, mClockPaint);
-                    }
-                }
-                if (periodDim) {
-                    if (!DateFormat.is24HourFormat(getApplicationContext())) {
-                        if (yPeriod < cardPeekRectangle.top) {
-                            canvas.drawText(periodString, xPeriod, yPeriod, mPeriodPaint);
-                        }
-                    }
-                }
-                if (tzDim) {
-                    if (yTimezone < cardPeekRectangle.top) {
-                        canvas.drawText(timezoneString, xTimezone, yTimezone, mTimezonePaint);
-                    }
-                }
-                if (dateDim) {
-                    if (yDatestamp < cardPeekRectangle.top) {
-                        canvas.drawText(datestampString, xDatestamp, yDatestamp, mDatestampPaint);
-                    }
-                }
-                if (timeDim) {
-                    if (yTimestamp < cardPeekRectangle.top) {
-                        canvas.drawText(timestampString, xTimestamp, yTimestamp, mTimestampPaint);
-                    }
-                }
-                if (epochDim) {
-                    if (yEpoch < cardPeekRectangle.top) {
-                        canvas.drawText(epochString, xEpoch, yEpoch, mEpochPaint);
-                    }
-                }
-                
+            PutDataMapRequest request = PutDataMapRequest.create(WatchFaceUtil.PATH_RENDER_STATS);
+            mRenderStats.writeTo(request.getDataMap());
+            Wearable.DataApi.putDataItem(mConfigTransport.getConnection().getClient(),
+                    request.asPutDataRequest());
+        }
+
+        // Draws the line from the glyph atlas if there is one that covers it, through the text
+        // engine otherwise.
+        private void drawLine(Canvas canvas, TextLine line, float x, float y, Paint paint,
+                GlyphAtlas atlas) {
+            if (atlas != null && atlas.canDraw(line)) {
+                atlas.draw(canvas, line, x, y, paint);
             } else {
-                // draw these when interactive
-                if (yClock < cardPeekRectangle.top) {
-                    canvas.drawText(clockString, xClock, yClock, mClockPaint);
-                }
-                if (!DateFormat.is24HourFormat(getApplicationContext())) {
-                    if (yPeriod < cardPeekRectangle.top) {
-                        canvas.drawText(periodString, xPeriod, yPeriod, mPeriodPaint);
-                    }
-                }
-                if (yTimezone < cardPeekRectangle.top) {
-                    canvas.drawText(timezoneString, xTimezone, yTimezone, mTimezonePaint);
-                }
-                if (yDatestamp < cardPeekRectangle.top) {
-                    canvas.drawText(datestampString, xDatestamp, yDatestamp, mDatestampPaint);
-                }
-                if (yTimestamp < cardPeekRectangle.top) {
-                    canvas.drawText(timestampString, xTimestamp, yTimestamp, mTimestampPaint);
-                }
-                if (yEpoch < cardPeekRectangle.top) {
-                    canvas.drawText(epochString, xEpoch, yEpoch, mEpochPaint);
-                }
+                canvas.drawText(line.chars, 0, line.length, x, y, paint);
             }
+        }
 
+        // Builds the paint sets of both modes for the current text sizes, alignment and display
+        // properties and hands them to mFramePreparer, along with the glyph atlases.
+        private void updatePaints() {
+            updatePaints(TimeFormatter.ALL);
+        }
+
+        // Rebuilds the paints after their sizes, colors or alignment changed, changedLines are
+        // the TimeFormatter bits of the lines affected. The glyph atlases of the others are kept.
+        private void updatePaints(int changedLines) {
+            mInteractivePaints = new PaintSet(mTextSizes, mTextAlign, NORMAL_TYPEFACE,
+                    mInteractiveTextColor, mAmbientTextColor, true);
+            // When this property is set to true, the screen supports fewer bits for each color in
+            // ambient mode. In this case, watch faces should disable anti-aliasing in ambient mode.
+            mAmbientPaints = new PaintSet(mTextSizes, mTextAlign, NORMAL_TYPEFACE,
+                    mAmbientTextColor, mAmbientTextColor, !mIsLowBitAmbient);
+            updateGlyphAtlases();
+            mFramePreparer.setPaints(mInteractivePaints, mAmbientPaints, changedLines);
+            mPaintsVersion++;
+        }
+
+        // (Re)builds the glyph atlases that don't match their paint's text size anymore.
+        private void updateGlyphAtlases() {
+            if ((mActiveRenderModes & GLYPH_ATLAS_RENDERING) == 0) {
+                return;
+            }
+            mClockAtlas = updateGlyphAtlas(mClockAtlas, mInteractivePaints.clock, CLOCK_GLYPHS);
+            mTimestampAtlas = updateGlyphAtlas(mTimestampAtlas, mInteractivePaints.timestamp,
+                    TIMESTAMP_GLYPHS);
+            mEpochAtlas = updateGlyphAtlas(mEpochAtlas, mInteractivePaints.epoch, mEpochGlyphs);
+            mFramePreparer.setGlyphAtlases(mClockAtlas, mTimestampAtlas, mEpochAtlas);
+        }
+
+        private GlyphAtlas updateGlyphAtlas(GlyphAtlas atlas, Paint paint, String glyphs) {
+            if (atlas != null && atlas.matches(paint)) {
+                return atlas;
+            }
+            if (atlas != null) {
+                atlas.recycle();
+            }
+            return new GlyphAtlas(paint, glyphs);
+        }
+
+        private void recycleGlyphAtlases() {
+            if (mClockAtlas != null) {
+                mClockAtlas.recycle();
+                mClockAtlas = null;
+            }
+            if (mTimestampAtlas != null) {
+                mTimestampAtlas.recycle();
+                mTimestampAtlas = null;
+            }
+            if (mEpochAtlas != null) {
+                mEpochAtlas.recycle();
+                mEpochAtlas = null;
+            }
         }
 
         // Starts the mUpdateTimeHandler timer if it should be running and isn't currently stops it
@@ -753,152 +1111,106 @@ public class WatchFaceService extends CanvasWatchFaceService {
             return isVisible() && !isInAmbientMode();
         }
 
-        private void updateConfigDataItemAndUiOnStartup() {
-            WatchFaceUtil.fetchConfigDataMap(mGoogleApiClient,
-                    new WatchFaceUtil.FetchConfigDataMapCallback() {
-                        @Override
-                        public void onConfigDataMapFetched(DataMap startupConfig) {
-                            // use the newly received settings
-                            if (startupConfig != null && !startupConfig.isEmpty()) {
-                                updateUiForConfigDataMap(startupConfig);
-                            }
-                        }
-                    }
-            );
+        // The config in hand, read from the preferences in onCreate(), is replaced by whatever
+        // the transport delivers, the fetched one as well as later changes.
+        @Override
+        public void onConfigReceived(String source, WatchFaceConfig config, ConfigTrace trace) {
+            // only the last of a burst is applied, once
+            mConfigCoalescer.offer(config);
+            mConfigTrace.received(trace);
         }
 
         @Override
-        public void onDataChanged(DataEventBuffer dataEvents) {
-            try {
-                for (DataEvent dataEvent : dataEvents) {
-                    if (dataEvent.getType() != DataEvent.TYPE_CHANGED) {
-                        continue;
-                    }
-
-                    DataItem dataItem = dataEvent.getDataItem();
-                    if (!dataItem.getUri().getPath().equals(WatchFaceUtil.PATH_WITH_FEATURE)) {
-                        continue;
-                    }
+        public void onCaughtUp() {
+        }
 
-                    DataMapItem dataMapItem = DataMapItem.fromDataItem(dataItem);
-                    DataMap config = dataMapItem.getDataMap();
-                    Log.d(TAG, "Config DataItem updated:" + config);
-                    if (config != null && !config.isEmpty()) {
-                        updateUiForConfigDataMap(config);
-                    }
-                }
-            } finally {
-                dataEvents.close();
-            }
-        }
-
-        private void updateUiForConfigDataMap(final DataMap dataMap) {
-            Log.d(TAG, "updateUiForConfigDataMap: " + dataMap);
-
-            // font sizes
-            int clockSize = dataMap
-                    .getInt(WatchFaceUtil.KEY_CLOCK_SIZE, WatchFaceUtil.KEY_CLOCK_SIZE_DEF);
-            int periodSize = dataMap
-                    .getInt(WatchFaceUtil.KEY_MARKER_SIZE, WatchFaceUtil.KEY_MARKER_SIZE_DEF);
-            int tzSize = dataMap.getInt(WatchFaceUtil.KEY_TZ_SIZE, WatchFaceUtil.KEY_TZ_SIZE_DEF);
-            int dateSize = dataMap
-                    .getInt(WatchFaceUtil.KEY_DATE_SIZE, WatchFaceUtil.KEY_DATE_SIZE_DEF);
-            int timeSize = dataMap
-                    .getInt(WatchFaceUtil.KEY_TIME_SIZE, WatchFaceUtil.KEY_TIME_SIZE_DEF);
-            int epochSize = dataMap
-                    .getInt(WatchFaceUtil.KEY_EPOCH_SIZE, WatchFaceUtil.KEY_EPOCH_SIZE_DEF);
-
-            // visibility flags
-            clockDim = dataMap
-                    .getBoolean(WatchFaceUtil.KEY_CLOCK_DIM, WatchFaceUtil.KEY_CLOCK_DIM_DEF);
-            periodDim = dataMap
-                    .getBoolean(WatchFaceUtil.KEY_MARKER_DIM, WatchFaceUtil.KEY_MARKER_DIM_DEF);
-            tzDim = dataMap.getBoolean(WatchFaceUtil.KEY_TZ_DIM, WatchFaceUtil.KEY_TZ_DIM_DEF);
-            dateDim = dataMap
-                    .getBoolean(WatchFaceUtil.KEY_DATE_DIM, WatchFaceUtil.KEY_DATE_DIM_DEF);
-            timeDim = dataMap
-                    .getBoolean(WatchFaceUtil.KEY_TIME_DIM, WatchFaceUtil.KEY_TIME_DIM_DEF);
-            epochDim = dataMap
-                    .getBoolean(WatchFaceUtil.KEY_EPOCH_DIM, WatchFaceUtil.KEY_EPOCH_DIM_DEF);
-
-            // notification card style
-            boolean useShortCards = dataMap.getBoolean(WatchFaceUtil.KEY_USE_SHORT_CARDS,
-                    WatchFaceUtil.KEY_USE_SHORT_CARDS_DEF);
-
-            // interactive timezone toggling
-            timestampTz = dataMap.getInt(WatchFaceUtil.KEY_TIME_TZ, WatchFaceUtil.KEY_TIME_TZ_DEF);
+        // Applies config, touching only what differs from the config applied so far.
+        private void applyConfig(WatchFaceConfig config) {
+            Log.d(TAG, "applyConfig: " + config);
+            long startNanos = System.nanoTime();
+            mConfigTrace.applying();
+            WatchFaceConfig old = mConfig;
+            if (config.equals(old)) {
+                // the companion app may still be waiting for this one
+                acknowledgeConfig();
+                mConfigTrace.applied(mPaintsVersion);
+                return;
+            }
+            mConfig = config;
 
             // update the style accordingly
-            if (useShortCards) {
-                Log.d(TAG, "Using short notification cards");
-                setWatchFaceStyle(shortCards);
-            } else {
-                Log.d(TAG, "Using variable notification cards");
-                setWatchFaceStyle(variableCards);
+            if (config.useShortCards != old.useShortCards) {
+                if (config.useShortCards) {
+                    Log.d(TAG, "Using short notification cards");
+                    setWatchFaceStyle(shortCards);
+                } else {
+                    Log.d(TAG, "Using variable notification cards");
+                    setWatchFaceStyle(variableCards);
+                }
             }
 
             // set the text sizes scaled according to the screen density
-            float density = getResources().getDisplayMetrics().density;
-            mClockPaint.setTextSize(clockSize * density);
-            mPeriodPaint.setTextSize(periodSize * density);
-            mTimezonePaint.setTextSize(tzSize * density);
-            mDatestampPaint.setTextSize(dateSize * density);
-            mTimestampPaint.setTextSize(timeSize * density);
-            mEpochPaint.setTextSize(epochSize * density);
+            int resized = resizedLines(old, config);
+            if (resized != 0) {
+                float density = getResources().getDisplayMetrics().density;
+                mTextSizes[0] = config.clockSize * density;
+                mTextSizes[1] = config.markerSize * density;
+                mTextSizes[2] = config.tzSize * density;
+                mTextSizes[3] = config.dateSize * density;
+                mTextSizes[4] = config.timeSize * density;
+                mTextSizes[5] = config.epochSize * density;
+                updatePaints(resized);
+                invalidateFrames();
+            }
 
-            // show the timestamp in UTC timezone if appropriate
-            updateTimestampTz(TimeZone.getDefault());
+            // the dim flags only decide what is drawn in ambient mode
+            if (config.clockDim != old.clockDim || config.markerDim != old.markerDim
+                    || config.tzDim != old.tzDim || config.dateDim != old.dateDim
+                    || config.timeDim != old.timeDim || config.epochDim != old.epochDim) {
+                mAmbientRenderer.discard();
+                if (isInAmbientMode()) {
+                    invalidate();
+                }
+            }
 
-            // redraw the canvas
-            invalidate();
+            if (config.timestampTz != old.timestampTz) {
+                // show the timestamp in UTC timezone if appropriate, this also prepares the
+                // frame that is drawn with the new settings once it is ready
+                updateTimestampTz();
+            } else if (resized != 0) {
+                mFramePreparer.prepareNow();
+            }
 
             // persist these values for the next time the watch face is instantiated
-            saveConfigValues(clockSize, periodSize, tzSize, dateSize, timeSize, epochSize,
-                    useShortCards);
-        }
-
-        private void saveConfigValues(int clockSize, int periodSize, int tzSize, int dateSize,
-                int timeSize, int epochSize, boolean useShortCards) {
-            Log.d(TAG, "saveConfigValues");
-
-            Context context = getApplicationContext();
-
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_CLOCK_SIZE, clockSize);
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_MARKER_SIZE, periodSize);
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_TZ_SIZE, tzSize);
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_DATE_SIZE, dateSize);
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_TIME_SIZE, timeSize);
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_EPOCH_SIZE, epochSize);
+            saveConfigValues();
+            acknowledgeConfig();
 
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_CLOCK_DIM, clockDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_MARKER_DIM, periodDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_TZ_DIM, tzDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_DATE_DIM, dateDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_TIME_DIM, timeDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_EPOCH_DIM, epochDim);
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_TIME_TZ_INTERACTIVE_STATE,
-                    interactiveTzState);
-
-            WatchFaceUtil.setInt(context, WatchFaceUtil.KEY_TIME_TZ, timestampTz);
-
-            WatchFaceUtil.setBoolean(context, WatchFaceUtil.KEY_USE_SHORT_CARDS, useShortCards);
+            mRenderStats.config.record(System.nanoTime() - startNanos);
+            mConfigTrace.applied(mPaintsVersion);
         }
 
-        @Override
-        public void onConnected(Bundle connectionHint) {
-            Log.d(TAG, "onConnected: " + connectionHint);
-            Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
-            updateConfigDataItemAndUiOnStartup();
+        // The TimeFormatter bits of the lines whose text size differs between a and b.
+        private int resizedLines(WatchFaceConfig a, WatchFaceConfig b) {
+            int lines = 0;
+            lines |= a.clockSize != b.clockSize ? TimeFormatter.CLOCK : 0;
+            lines |= a.markerSize != b.markerSize ? TimeFormatter.PERIOD : 0;
+            lines |= a.tzSize != b.tzSize ? TimeFormatter.TIMEZONE : 0;
+            lines |= a.dateSize != b.dateSize ? TimeFormatter.DATESTAMP : 0;
+            lines |= a.timeSize != b.timeSize ? TimeFormatter.TIMESTAMP : 0;
+            lines |= a.epochSize != b.epochSize ? TimeFormatter.EPOCH : 0;
+            return lines;
         }
 
-        @Override
-        public void onConnectionSuspended(int cause) {
-            Log.d(TAG, "onConnectionSuspended: " + cause);
+        private void saveConfigValues() {
+            Log.d(TAG, "saveConfigValues");
+
+            // in one write, off the UI thread and collapsed with any that follow soon
+            mConfigWriter.write(mConfig, interactiveTzState);
         }
 
-        @Override
-        public void onConnectionFailed(@NonNull ConnectionResult result) {
-            Log.d(TAG, "onConnectionFailed: " + result);
+        // Tells the companion app which config is applied, so that it doesn't put it again.
+        private void acknowledgeConfig() {
+            mConfigTransport.send(mConfig, null);
         }
     }
 }
@@ -42,6 +42,12 @@ public final class WatchFaceUtil {
 
     private static final String TAG = WatchFaceUtil.class.getSimpleName();
 
+    // the id of this watch's node, it never changes, see fetchConfigDataMap()
+    private static volatile String sLocalNode;
+
+    // the config DataItem this process puts, see overwriteKeysInConfigDataMap()
+    private static final ConfigMergeCache sConfigCache = new ConfigMergeCache();
+
     //Define the list of accepted constants
     @IntDef({LOCAL, UTC, INTERACTIVE})
 
@@ -54,94 +60,105 @@ public final class WatchFaceUtil {
     }
 
     //Declare the constants
-    public static final int LOCAL = 0;
-
-    public static final int UTC = 1;
-
-    public static final int INTERACTIVE = 2;
-
-    public static final String KEY_CLOCK_SIZE = "clock_size";
-
-    public static final int KEY_CLOCK_SIZE_DEF = 50;
-
-    public static final String KEY_CLOCK_DIM = "clock_dim";
-
-    public static final boolean KEY_CLOCK_DIM_DEF = true;
-
-    public static final String KEY_MARKER_SIZE = "marker_size";
-
-    public static final int KEY_MARKER_SIZE_DEF = 16;
-
-    public static final String KEY_MARKER_DIM = "marker_dim";
-
-    public static final boolean KEY_MARKER_DIM_DEF = true;
-
-    public static final String KEY_TZ_SIZE = "tz_size";
-
-    public static final int KEY_TZ_SIZE_DEF = 16;
-
-    public static final String KEY_TZ_DIM = "tz_dim";
-
-    public static final boolean KEY_TZ_DIM_DEF = false;
+    public static final int LOCAL = WatchFaceConfig.LOCAL;
 
-    public static final String KEY_DATE_SIZE = "date_size";
+    public static final int UTC = WatchFaceConfig.UTC;
 
-    public static final int KEY_DATE_SIZE_DEF = 18;
+    public static final int INTERACTIVE = WatchFaceConfig.INTERACTIVE;
 
-    public static final String KEY_DATE_DIM = "date_dim";
-
-    public static final boolean KEY_DATE_DIM_DEF = false;
-
-    public static final String KEY_TIME_SIZE = "time_size";
-
-    public static final int KEY_TIME_SIZE_DEF = 18;
-
-    public static final String KEY_TIME_DIM = "time_dim";
-
-    public static final boolean KEY_TIME_DIM_DEF = false;
-
-    public static final String KEY_EPOCH_SIZE = "epoch_size";
-
-    public static final int KEY_EPOCH_SIZE_DEF = 18;
-
-    public static final String KEY_EPOCH_DIM = "epoch_dim";
+    // the settings themselves are keyed and defaulted in WatchFaceConfig, this one is the
+    // watch's own
+    public static final String KEY_TIME_TZ_INTERACTIVE_STATE = "timestamp_tz_interactive_state";
 
-    public static final boolean KEY_EPOCH_DIM_DEF = false;
+    public static final boolean KEY_TIME_TZ_INTERACTIVE_STATE_DEF = false;
 
-    public static final String KEY_USE_SHORT_CARDS = "use_short_cards";
+    public static final String PATH_WITH_FEATURE = "/DevOpsTime";
 
-    public static final boolean KEY_USE_SHORT_CARDS_DEF = true;
+    // the config the watch face last applied, the companion app only puts one that differs
+    public static final String PATH_CONFIG_APPLIED = PATH_WITH_FEATURE + "/applied";
 
-    public static final String KEY_TIME_TZ = "timestamp_tz";
+    // render time histograms the watch face sends to the companion app
+    public static final String PATH_RENDER_STATS = PATH_WITH_FEATURE + "/render_stats";
 
-    public static final int KEY_TIME_TZ_DEF = INTERACTIVE;
 
-    public static final String KEY_TIME_TZ_INTERACTIVE_STATE = "timestamp_tz_interactive_state";
+    // Reads every setting from one look at the preferences, the defaults for the ones that were
+    // never written.
+    public static WatchFaceConfig readConfig(final Context context) {
+        final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        return new WatchFaceConfig.Builder()
+                .readFrom(new WatchFaceConfig.Source() {
+                    @Override
+                    public int getInt(String key, int defaultValue) {
+                        return settings.getInt(key, defaultValue);
+                    }
 
-    public static final String PATH_WITH_FEATURE = "/DevOpsTime";
+                    @Override
+                    public boolean getBoolean(String key, boolean defaultValue) {
+                        return settings.getBoolean(key, defaultValue);
+                    }
+                })
+                .build();
+    }
 
+    // Writes every setting and the interactive timestamp time zone state in a single edit: one
+    // disk write instead of one per key, and no reader ever sees a config that is only half
+    // written. Blocks until it is on disk, so call it off the UI thread, see ConfigWriter.
+    // Returns whether that succeeded.
+    public static boolean writeConfig(final Context context, final WatchFaceConfig config,
+            final boolean timestampTzInteractiveState) {
+        final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
+        final SharedPreferences.Editor editor = settings.edit();
+        config.writeTo(new WatchFaceConfig.Sink() {
+            @Override
+            public void putInt(String key, int value) {
+                editor.putInt(key, value);
+            }
 
-    public static int getInt(final Context context, final String key, final int defaultValue) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getInt(key, defaultValue);
+            @Override
+            public void putBoolean(String key, boolean value) {
+                editor.putBoolean(key, value);
+            }
+        });
+        editor.putBoolean(KEY_TIME_TZ_INTERACTIVE_STATE, timestampTzInteractiveState);
+        return editor.commit();
     }
 
-    public static boolean getBoolean(final Context context, final String key,
-            final boolean defaultValue) {
-        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(key, defaultValue);
-    }
+    // The config a config DataMap holds: the encoded WatchFaceConfig the companion app puts,
+    // else the defaults, with any single keys on top. Those come from messages that only
+    // overwrite some keys, see WatchFaceConfigListener, or from older companion apps that put
+    // every key on its own.
+    public static WatchFaceConfig fromDataMap(final DataMap dataMap) {
+        WatchFaceConfig base = WatchFaceConfig.DEFAULT;
+        byte[] bytes = dataMap.getByteArray(WatchFaceConfig.KEY_CONFIG);
+        if (bytes != null) {
+            try {
+                base = WatchFaceConfig.fromBytes(bytes);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Ignoring malformed config", e);
+            }
+        }
+        return new WatchFaceConfig.Builder(base)
+                .readFrom(new WatchFaceConfig.Source() {
+                    @Override
+                    public int getInt(String key, int defaultValue) {
+                        return dataMap.getInt(key, defaultValue);
+                    }
 
-    public static void setInt(final Context context, final String key, final int value) {
-        final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
-        final SharedPreferences.Editor editor = settings.edit();
-        editor.putInt(key, value);
-        editor.apply();
+                    @Override
+                    public boolean getBoolean(String key, boolean defaultValue) {
+                        return dataMap.getBoolean(key, defaultValue);
+                    }
+                })
+                .build();
     }
 
-    public static void setBoolean(final Context context, final String key, final boolean value) {
-        final SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(context);
-        final SharedPreferences.Editor editor = settings.edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+    // The trace the companion app sent the config DataMap with, null if it didn't.
+    public static ConfigTrace traceFromDataMap(DataMap dataMap) {
+        if (!dataMap.containsKey(ConfigTrace.KEY_TRACE_ID)) {
+            return null;
+        }
+        return new ConfigTrace(dataMap.getLong(ConfigTrace.KEY_TRACE_ID),
+                dataMap.getLong(ConfigTrace.KEY_TRACE_ORIGIN));
     }
 
     public static void resetAllPrefs(final Context context) {
@@ -164,43 +181,73 @@ public final class WatchFaceUtil {
     // empty DataMap.
     public static void fetchConfigDataMap(final GoogleApiClient client,
             final FetchConfigDataMapCallback callback) {
+        String localNode = sLocalNode;
+        if (localNode != null) {
+            getConfigDataItem(client, localNode, callback);
+            return;
+        }
         Wearable.NodeApi.getLocalNode(client).setResultCallback(
                 new ResultCallback<NodeApi.GetLocalNodeResult>() {
                     @Override
                     public void onResult(@NonNull NodeApi.GetLocalNodeResult getLocalNodeResult) {
                         String localNode = getLocalNodeResult.getNode().getId();
-                        Uri uri = new Uri.Builder()
-                                .scheme("wear")
-                                .path(WatchFaceUtil.PATH_WITH_FEATURE)
-                                .authority(localNode)
-                                .build();
-                        Wearable.DataApi.getDataItem(client, uri)
-                                .setResultCallback(new DataItemResultCallback(callback));
+                        sLocalNode = localNode;
+                        getConfigDataItem(client, localNode, callback);
                     }
                 }
         );
     }
 
+    // The node id fetchConfigDataMap() found, null until it has.
+    static String getLocalNode() {
+        return sLocalNode;
+    }
+
+    private static void getConfigDataItem(GoogleApiClient client, String localNode,
+            FetchConfigDataMapCallback callback) {
+        Uri uri = new Uri.Builder()
+                .scheme("wear")
+                .path(WatchFaceUtil.PATH_WITH_FEATURE)
+                .authority(localNode)
+                .build();
+        Wearable.DataApi.getDataItem(client, uri)
+                .setResultCallback(new DataItemResultCallback(callback));
+    }
+
     // Overwrites (or sets, if not present) the keys in the current config DataItem with the ones
     // appearing in the given DataMap. If the config DataItem doesn't exist, it's created. It is
     // allowed that only some of the keys used in the config DataItem appear in
     // configKeysToOverwrite. The rest of the keys remains unmodified in this case.
+    // The keys are merged into sConfigCache, only the first call of the process reads the
+    // DataItem to seed it. Safe to call from any thread, concurrent calls keep each other's keys
+    // and their puts are issued in the order of their merges.
     public static void overwriteKeysInConfigDataMap(final GoogleApiClient googleApiClient,
             final DataMap configKeysToOverwrite) {
-
+        if (sConfigCache.isSeeded()) {
+            putMergedConfig(googleApiClient, configKeysToOverwrite);
+            return;
+        }
         WatchFaceUtil.fetchConfigDataMap(googleApiClient,
                 new FetchConfigDataMapCallback() {
                     @Override
                     public void onConfigDataMapFetched(DataMap currentConfig) {
-                        DataMap overwrittenConfig = new DataMap();
-                        overwrittenConfig.putAll(currentConfig);
-                        overwrittenConfig.putAll(configKeysToOverwrite);
-                        WatchFaceUtil.putConfigDataItem(googleApiClient, overwrittenConfig);
+                        sConfigCache.seed(currentConfig);
+                        putMergedConfig(googleApiClient, configKeysToOverwrite);
                     }
                 }
         );
     }
 
+    private static void putMergedConfig(final GoogleApiClient googleApiClient,
+            DataMap configKeysToOverwrite) {
+        sConfigCache.mergeAndPut(configKeysToOverwrite, new ConfigMergeCache.Writer() {
+            @Override
+            public void put(DataMap config) {
+                WatchFaceUtil.putConfigDataItem(googleApiClient, config);
+            }
+        });
+    }
+
 
     // Overwrites the current config DataItem's DataMap with newConfig. If the config DataItem
     // doesn't exist, it's created.
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+// Compares the two forms the config has been synced in: a DataMap with one entry per key, as
+// the companion app used to put it, and WatchFaceConfig.toBytes(), as it puts it now inside a
+// DataMap of its own. Prints the size of each on the wire and the time and bytes allocated to
+// encode and to decode it. DataMap serializes the same on any JVM, Robolectric only provides
+// the Android classes around it.
+// ./gradlew :wear:testDebugUnitTest -Pbenchmark --tests '*ConfigEncodingBenchmark'
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ConfigEncodingBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20000;
+
+    private static final int ROUNDS = 100000;
+
+    private static final WatchFaceConfig CONFIG = new WatchFaceConfig.Builder()
+            .setClockSize(44)
+            .setTzDim(true)
+            .setUseShortCards(false)
+            .setTimestampTz(WatchFaceConfig.UTC)
+            .build();
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // one encoding, driven by run()
+    private interface Form {
+
+        byte[] encode(WatchFaceConfig config);
+
+        WatchFaceConfig decode(byte[] bytes);
+    }
+
+    private static final Form KEYED = new Form() {
+        @Override
+        public byte[] encode(WatchFaceConfig config) {
+            final DataMap dataMap = new DataMap();
+            config.writeTo(new WatchFaceConfig.Sink() {
+                @Override
+                public void putInt(String key, int value) {
+                    dataMap.putInt(key, value);
+                }
+
+                @Override
+                public void putBoolean(String key, boolean value) {
+                    dataMap.putBoolean(key, value);
+                }
+            });
+            return dataMap.toByteArray();
+        }
+
+        @Override
+        public WatchFaceConfig decode(byte[] bytes) {
+            return WatchFaceUtil.fromDataMap(DataMap.fromByteArray(bytes));
+        }
+    };
+
+    private static final Form ENCODED = new Form() {
+        @Override
+        public byte[] encode(WatchFaceConfig config) {
+            DataMap dataMap = new DataMap();
+            dataMap.putByteArray(WatchFaceConfig.KEY_CONFIG, config.toBytes());
+            return dataMap.toByteArray();
+        }
+
+        @Override
+        public WatchFaceConfig decode(byte[] bytes) {
+            return WatchFaceUtil.fromDataMap(DataMap.fromByteArray(bytes));
+        }
+    };
+
+    // just toBytes() and fromBytes(), without the DataMap around them
+    private static final Form RAW = new Form() {
+        @Override
+        public byte[] encode(WatchFaceConfig config) {
+            return config.toBytes();
+        }
+
+        @Override
+        public WatchFaceConfig decode(byte[] bytes) {
+            return WatchFaceConfig.fromBytes(bytes);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        assumeTrue("run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void encodeAndDecode() {
+        System.out.println("form            bytes   encode ns   decode ns   encode B   decode B");
+        run("DataMap keys", KEYED);
+        run("DataMap bytes", ENCODED);
+        run("toBytes", RAW);
+    }
+
+    private void run(String name, Form form) {
+        byte[] bytes = form.encode(CONFIG);
+        assertEquals(CONFIG, form.decode(bytes));
+
+        long threadId = Thread.currentThread().getId();
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += form.encode(CONFIG).length;
+            sink += form.decode(bytes).clockSize;
+        }
+
+        long allocatedBefore = mThreads.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += form.encode(CONFIG).length;
+        }
+        long encodeNanos = System.nanoTime() - startNanos;
+        long encodeAllocated = mThreads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        allocatedBefore = mThreads.getThreadAllocatedBytes(threadId);
+        startNanos = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += form.decode(bytes).clockSize;
+        }
+        long decodeNanos = System.nanoTime() - startNanos;
+        long decodeAllocated = mThreads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.println(String.format("%-14s %6d   %9d   %9d   %8d   %8d", name,
+                bytes.length, encodeNanos / ROUNDS, decodeNanos / ROUNDS,
+                encodeAllocated / ROUNDS, decodeAllocated / ROUNDS));
+        // keeps the loops from being optimized away
+        assertTrue(sink > 0);
+    }
+}
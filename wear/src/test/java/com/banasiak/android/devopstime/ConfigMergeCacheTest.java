@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import com.google.android.gms.wearable.DataMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ConfigMergeCacheTest {
+
+    @Test
+    public void seedOnlyOnce() {
+        ConfigMergeCache cache = new ConfigMergeCache();
+        assertFalse(cache.isSeeded());
+
+        DataMap first = new DataMap();
+        first.putInt(WatchFaceConfig.KEY_CLOCK_SIZE, 40);
+        cache.seed(first);
+        DataMap keys = new DataMap();
+        keys.putBoolean(WatchFaceConfig.KEY_TZ_DIM, true);
+        cache.merge(keys);
+
+        // a fetch that completes late must not undo the merge
+        cache.seed(new DataMap());
+        ConfigMergeCache.Snapshot snapshot = cache.merge(new DataMap());
+        assertTrue(cache.isSeeded());
+        assertEquals(2, snapshot.version);
+        assertEquals(40, snapshot.config.getInt(WatchFaceConfig.KEY_CLOCK_SIZE));
+        assertTrue(snapshot.config.getBoolean(WatchFaceConfig.KEY_TZ_DIM));
+    }
+
+    @Test
+    public void laterKeysWin() {
+        ConfigMergeCache cache = new ConfigMergeCache();
+        cache.seed(new DataMap());
+        final List<DataMap> puts = new ArrayList<DataMap>();
+        ConfigMergeCache.Writer writer = new ConfigMergeCache.Writer() {
+            @Override
+            public void put(DataMap config) {
+                puts.add(config);
+            }
+        };
+        DataMap keys = new DataMap();
+        keys.putInt(WatchFaceConfig.KEY_EPOCH_SIZE, 10);
+        ConfigMergeCache.Snapshot first = cache.mergeAndPut(keys, writer);
+        keys = new DataMap();
+        keys.putInt(WatchFaceConfig.KEY_EPOCH_SIZE, 20);
+        ConfigMergeCache.Snapshot second = cache.mergeAndPut(keys, writer);
+
+        assertEquals(2, puts.size());
+        assertEquals(first.version + 1, second.version);
+        assertEquals(10, puts.get(0).getInt(WatchFaceConfig.KEY_EPOCH_SIZE));
+        // the last put is the latest merge
+        assertEquals(20, puts.get(1).getInt(WatchFaceConfig.KEY_EPOCH_SIZE));
+        assertEquals(20, second.config.getInt(WatchFaceConfig.KEY_EPOCH_SIZE));
+    }
+
+    @Test
+    public void concurrentMergesKeepEveryKey() throws InterruptedException {
+        final int threads = 4;
+        final int keysPerThread = 500;
+        final ConfigMergeCache cache = new ConfigMergeCache();
+        cache.seed(new DataMap());
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < keysPerThread; i++) {
+                        DataMap keys = new DataMap();
+                        keys.putInt("key_" + thread + "_" + i, i);
+                        cache.merge(keys);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        ConfigMergeCache.Snapshot last = cache.merge(new DataMap());
+        assertEquals(threads * keysPerThread + 1, last.version);
+        assertEquals(threads * keysPerThread, last.config.size());
+    }
+
+    @Test
+    public void concurrentPutsAreIssuedInMergeOrder() throws InterruptedException {
+        final int threads = 4;
+        final int keysPerThread = 500;
+        final ConfigMergeCache cache = new ConfigMergeCache();
+        cache.seed(new DataMap());
+        // the size of each config put, in the order the puts were issued
+        final List<Integer> puts = new ArrayList<Integer>();
+        final ConfigMergeCache.Writer writer = new ConfigMergeCache.Writer() {
+            @Override
+            public void put(DataMap config) {
+                synchronized (puts) {
+                    puts.add(config.size());
+                }
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < keysPerThread; i++) {
+                        DataMap keys = new DataMap();
+                        keys.putInt("key_" + thread + "_" + i, i);
+                        cache.mergeAndPut(keys, writer);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // every merge adds a key, a put that overtook a later one would show up smaller
+        assertEquals(threads * keysPerThread, puts.size());
+        for (int i = 0; i < puts.size(); i++) {
+            assertEquals(i + 1, (int) puts.get(i));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigTraceRecorderTest {
+
+    private static String dump(RenderStats stats) {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        stats.dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void recordsOnFirstFrameWithNewPaints() {
+        RenderStats stats = new RenderStats();
+        ConfigTraceRecorder recorder = new ConfigTraceRecorder(stats);
+        ConfigTrace trace = new ConfigTrace(0xabc, System.currentTimeMillis());
+
+        recorder.received(trace);
+        recorder.drawn(1);
+        recorder.applying();
+        recorder.applied(2);
+        // prepared before the new paints
+        recorder.drawn(1);
+        assertFalse(dump(stats).contains("Last config trace"));
+
+        recorder.drawn(2);
+        String dump = dump(stats);
+        assertTrue(dump, dump.contains("config total: n=1 "));
+        assertTrue(dump, dump.contains("Last config trace abc"));
+
+        // done, later frames don't count again
+        recorder.drawn(3);
+        assertTrue(dump(stats).contains("config total: n=1 "));
+    }
+
+    @Test
+    public void laterTraceReplacesOneInFlight() {
+        RenderStats stats = new RenderStats();
+        ConfigTraceRecorder recorder = new ConfigTraceRecorder(stats);
+        recorder.received(new ConfigTrace(1, System.currentTimeMillis()));
+        recorder.received(new ConfigTrace(2, System.currentTimeMillis()));
+        recorder.applying();
+        recorder.applied(1);
+        recorder.drawn(1);
+
+        String dump = dump(stats);
+        assertTrue(dump, dump.contains("config total: n=1 "));
+        assertTrue(dump, dump.contains("Last config trace 2 "));
+    }
+
+    @Test
+    public void untracedConfigKeepsTraceInFlight() {
+        RenderStats stats = new RenderStats();
+        ConfigTraceRecorder recorder = new ConfigTraceRecorder(stats);
+        recorder.received(new ConfigTrace(1, System.currentTimeMillis()));
+        // fetched on a reconnect
+        recorder.received(null);
+        recorder.applying();
+        recorder.applied(1);
+        recorder.drawn(1);
+
+        String dump = dump(stats);
+        assertTrue(dump, dump.contains("config total: n=1 "));
+        assertTrue(dump, dump.contains("Last config trace 1 "));
+    }
+
+    @Test
+    public void untracedConfigIsNotRecorded() {
+        RenderStats stats = new RenderStats();
+        ConfigTraceRecorder recorder = new ConfigTraceRecorder(stats);
+        recorder.received(null);
+        recorder.applying();
+        recorder.applied(1);
+        recorder.drawn(1);
+
+        assertTrue(dump(stats).contains("config total: n=0 "));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowCanvas;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Draws steady state frames through EngineHarness, a tick of the clock each, and checks that
+// onDraw() allocates nothing in either mode, ambient frames being the ones AmbientRenderer
+// prepared ahead. Robolectric's Canvas keeps a history of what was drawn, QuietShadowCanvas
+// doesn't. Robolectric's message queue also allocates for each message queued, where a real
+// one takes a pooled Message: each frame is checked to have made exactly the queue calls of
+// queueCalls(), and those made on their own are counted the same way and left out.
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21,
+        shadows = EngineAllocationTest.QuietShadowCanvas.class)
+public class EngineAllocationTest {
+
+    private static final int WARMUP_FRAMES = 200;
+
+    private static final int FRAMES = 100;
+
+    // the interactive timer's delay, a tick from the start of the model to its end
+    private static final long TICK_MS = 1000;
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long mThreadId = Thread.currentThread().getId();
+
+    @Test
+    public void interactiveFramesDontAllocate() {
+        assertFramesDontAllocate(false);
+    }
+
+    @Test
+    public void ambientFramesDontAllocate() {
+        assertFramesDontAllocate(true);
+    }
+
+    private void assertFramesDontAllocate(boolean ambient) {
+        EngineHarness harness = new EngineHarness(true, 320, ambient,
+                WatchFaceService.DEFAULT_RENDER_MODES);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            harness.drawFrame();
+        }
+
+        WatchFaceService.Engine engine = harness.engine;
+        long drawBytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            harness.tick();
+            assertEquals(ambient, harness.isPrerendered());
+            long allocatedBefore = allocatedBytes();
+            harness.draw();
+            drawBytes += allocatedBytes() - allocatedBefore;
+            assertQueueCalls(harness, ambient);
+            harness.drainPreparer();
+        }
+
+        long queueBytes = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            long allocatedBefore = allocatedBytes();
+            queueCalls(engine, ambient);
+            queueBytes += allocatedBytes() - allocatedBefore;
+            assertQueueCalls(harness, ambient);
+            harness.drainPreparer();
+        }
+        harness.destroy();
+
+        assertTrue("onDraw() allocated " + (drawBytes - queueBytes) + " bytes in " + FRAMES
+                + (ambient ? " ambient" : " interactive") + " frames", drawBytes <= queueBytes);
+    }
+
+    // What onDraw() asks of the message queues each frame: prepareNext() from takeFrameModel(),
+    // then scheduleNextFrame() rearming the timer in interactive mode.
+    private static void queueCalls(WatchFaceService.Engine engine, boolean ambient) {
+        engine.mFramePreparer.prepareNext();
+        engine.mUpdateTimeHandler.removeMessages(WatchFaceService.Engine.MSG_UPDATE_TIME);
+        if (!ambient) {
+            engine.mUpdateTimeHandler.sendEmptyMessageDelayed(
+                    WatchFaceService.Engine.MSG_UPDATE_TIME, TICK_MS);
+        }
+    }
+
+    // Checks the queues hold what queueCalls() leaves in them, and nothing else.
+    private static void assertQueueCalls(EngineHarness harness, boolean ambient) {
+        assertEquals(1, harness.preparerTasks());
+        assertEquals(!ambient, harness.engine.mUpdateTimeHandler.hasMessages(
+                WatchFaceService.Engine.MSG_UPDATE_TIME));
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(mThreadId);
+    }
+
+    // Draws nothing and, unlike ShadowCanvas, doesn't describe it either.
+    @Implements(Canvas.class)
+    public static class QuietShadowCanvas extends ShadowCanvas {
+
+        @Implementation
+        public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        }
+
+        @Implementation
+        public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        }
+
+        @Implementation
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        }
+
+        @Implementation
+        public void drawColor(int color) {
+        }
+    }
+}
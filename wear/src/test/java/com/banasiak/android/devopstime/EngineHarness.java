@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.robolectric.Robolectric;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowLooper;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.service.wallpaper.WallpaperService;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowInsets;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+// Runs a WatchFaceService engine the way the system does: onCreate, onApplyWindowInsets,
+// onSurfaceChanged, shown, and into or out of ambient mode through the command the system
+// sends. Then a frame at a time: the clock is stepped to the end of the model on screen, where
+// the engine's timer would fire, the frame is drawn, and the FramePreparer's looper, paused, is
+// run until it has prepared the next model. Robolectric runs that looper's tasks on the test
+// thread.
+final class EngineHarness {
+
+    // a minute boundary, so that ambient and interactive frames start on a tick
+    private static final long START_MS = TimeUnit.MINUTES.toMillis(24166667);
+
+    // the command the system sends on entering and leaving ambient mode, and its extras
+    private static final String ACTION_BACKGROUND =
+            "com.google.android.wearable.action.BACKGROUND_ACTION";
+
+    private static final String EXTRA_AMBIENT_MODE = "ambient_mode";
+
+    private static final String EXTRA_INTERRUPTION_FILTER = "interruption_filter";
+
+    final WatchFaceService service;
+
+    final WatchFaceService.Engine engine;
+
+    private final FakeClock mClock = new FakeClock();
+
+    private final ShadowLooper mPreparerLooper;
+
+    private final Bitmap mScreen;
+
+    private final Canvas mCanvas;
+
+    private final Rect mBounds;
+
+    EngineHarness(boolean isRound, int size, boolean ambient, int renderModes) {
+        service = Robolectric.setupService(WatchFaceService.class);
+        service.mRenderModes = renderModes;
+        service.mClock = mClock;
+        engine = service.onCreateEngine();
+        FakeSurfaceHolder holder = new FakeSurfaceHolder(size);
+        engine.onCreate(holder);
+        mPreparerLooper = Shadows.shadowOf(engine.mFramePreparer.getLooper());
+        mPreparerLooper.pause();
+        engine.onApplyWindowInsets(createInsets(isRound));
+        engine.onSurfaceChanged(holder, PixelFormat.RGBA_8888, size, size);
+        setVisible();
+        setAmbientMode(ambient);
+        drainPreparer();
+
+        mScreen = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mScreen);
+        mBounds = new Rect(0, 0, size, size);
+    }
+
+    // Steps the clock to the next tick, draws it and prepares the model after it.
+    void drawFrame() {
+        tick();
+        draw();
+        drainPreparer();
+    }
+
+    // Steps the clock to the end of the model on screen, a second on in interactive mode, a
+    // minute in ambient mode, or by a second while there is no model yet.
+    void tick() {
+        FrameModel model = engine.mFrameModel;
+        mClock.timeMs = model.isEmpty() ? mClock.timeMs + 1000 : model.endMs;
+    }
+
+    // Only onDraw(), what the system calls on the UI thread for the frame.
+    void draw() {
+        engine.onDraw(mCanvas, mBounds);
+    }
+
+    // Whether the frame of the tick the clock is at was rendered ahead of time, so that
+    // onDraw() only has to put it on the screen, see AMBIENT_PRERENDER.
+    boolean isPrerendered() {
+        return engine.mAmbientRenderer.hasFrame(mClock.timeMs, mBounds.width(),
+                mBounds.height());
+    }
+
+    // How many tasks are waiting on the FramePreparer's looper.
+    int preparerTasks() {
+        return mPreparerLooper.getScheduler().size();
+    }
+
+    // Runs what was posted to the FramePreparer until it has nothing left to do.
+    void drainPreparer() {
+        mPreparerLooper.runToEndOfTasks();
+    }
+
+    void destroy() {
+        mPreparerLooper.unPause();
+        engine.onDestroy();
+        mScreen.recycle();
+    }
+
+    // What the system does through IWallpaperEngine when the face is shown, the method isn't
+    // public.
+    private void setVisible() {
+        try {
+            Method method = WallpaperService.Engine.class
+                    .getDeclaredMethod("doVisibilityChanged", boolean.class);
+            method.setAccessible(true);
+            method.invoke(engine, true);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+        if (!engine.isVisible()) {
+            throw new AssertionError("engine not visible");
+        }
+    }
+
+    private void setAmbientMode(boolean ambient) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(EXTRA_AMBIENT_MODE, ambient);
+        extras.putInt(EXTRA_INTERRUPTION_FILTER,
+                android.support.wearable.watchface.WatchFaceService.INTERRUPTION_FILTER_ALL);
+        engine.onCommand(ACTION_BACKGROUND, 0, 0, 0, extras, false);
+        if (engine.isInAmbientMode() != ambient) {
+            throw new AssertionError("engine not in " + (ambient ? "ambient" : "interactive")
+                    + " mode");
+        }
+    }
+
+    // WindowInsets has no public constructor.
+    private static WindowInsets createInsets(boolean isRound) {
+        try {
+            Constructor<WindowInsets> constructor = WindowInsets.class
+                    .getDeclaredConstructor(Rect.class, Rect.class, Rect.class, boolean.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(new Rect(), new Rect(), new Rect(), isRound);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final class FakeClock implements WallClock {
+
+        long timeMs = START_MS;
+
+        @Override
+        public long currentTimeMillis() {
+            return timeMs;
+        }
+    }
+
+    private static final class FakeSurfaceHolder implements SurfaceHolder {
+
+        private final Rect mFrame;
+
+        FakeSurfaceHolder(int size) {
+            mFrame = new Rect(0, 0, size, size);
+        }
+
+        @Override
+        public void addCallback(Callback callback) {
+        }
+
+        @Override
+        public void removeCallback(Callback callback) {
+        }
+
+        @Override
+        public boolean isCreating() {
+            return false;
+        }
+
+        @Override
+        public void setType(int type) {
+        }
+
+        @Override
+        public void setFixedSize(int width, int height) {
+        }
+
+        @Override
+        public void setSizeFromLayout() {
+        }
+
+        @Override
+        public void setFormat(int format) {
+        }
+
+        @Override
+        public void setKeepScreenOn(boolean screenOn) {
+        }
+
+        @Override
+        public Canvas lockCanvas() {
+            return null;
+        }
+
+        @Override
+        public Canvas lockCanvas(Rect dirty) {
+            return null;
+        }
+
+        @Override
+        public void unlockCanvasAndPost(Canvas canvas) {
+        }
+
+        @Override
+        public Rect getSurfaceFrame() {
+            return mFrame;
+        }
+
+        @Override
+        public Surface getSurface() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+// Drives the whole engine through EngineHarness, a tick of the clock per frame so that every
+// frame draws a newly prepared model, for round and square screens from 280 to 480 px and each
+// of the RENDER_MODES. Prints frames per second and bytes allocated per frame, both of
+// onDraw() alone, and the cost of scaling the background for each, or of cutting and scaling
+// its tile for TILED_BACKGROUND. Canvas and BitmapFactory are Robolectric's, which don't touch
+// pixels, so the frame numbers are the engine's own share of a frame, what regresses when the
+// face code does. The background is scaled with java.awt instead, the same bilinear pass
+// createScaledBitmap does on the watch.
+// ./gradlew :wear:testDebugUnitTest -Pbenchmark --tests '*EngineRenderBenchmark'
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class EngineRenderBenchmark {
+
+    private static final int[] SIZES = {280, 320, 360, 400, 454, 480};
+
+    // the defaults, and the full repaint they replaced, each from the scaled and the tiled
+    // background
+    private static final int[] RENDER_MODES = {
+            WatchFaceService.DEFAULT_RENDER_MODES,
+            WatchFaceService.DEFAULT_RENDER_MODES & ~WatchFaceService.LAYERED_RENDERING,
+            WatchFaceService.DEFAULT_RENDER_MODES | WatchFaceService.TILED_BACKGROUND,
+            (WatchFaceService.DEFAULT_RENDER_MODES & ~WatchFaceService.LAYERED_RENDERING)
+                    | WatchFaceService.TILED_BACKGROUND,
+    };
+
+    private static final int WARMUP_FRAMES = 500;
+
+    private static final int FRAMES = 5000;
+
+    private static final int RESCALES = 20;
+
+    // relative to the module, where gradle runs unit tests
+    private static final String BACKGROUND_PATH = "src/main/res/drawable/kevlar.png";
+
+    private final com.sun.management.ThreadMXBean mThreads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long mThreadId = Thread.currentThread().getId();
+
+    @Before
+    public void setUp() {
+        assumeTrue("run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void drawFrames() throws Exception {
+        BufferedImage background = ImageIO.read(new File(BACKGROUND_PATH));
+        System.out.println("profile          mode         fps   bytes/frame   rescale ms"
+                + "   render modes");
+        for (boolean isRound : new boolean[]{true, false}) {
+            for (int size : SIZES) {
+                double rescaleMs = rescaleMillis(background, size, false);
+                double tileRescaleMs = rescaleMillis(background, size, true);
+                for (boolean ambient : new boolean[]{false, true}) {
+                    for (int modes : RENDER_MODES) {
+                        benchmark(isRound, size, ambient, modes,
+                                (modes & WatchFaceService.TILED_BACKGROUND) != 0
+                                        ? tileRescaleMs : rescaleMs);
+                    }
+                }
+            }
+        }
+    }
+
+    private void benchmark(boolean isRound, int size, boolean ambient, int renderModes,
+            double rescaleMs) {
+        EngineHarness harness = new EngineHarness(isRound, size, ambient, renderModes);
+        // the minute tick only puts the frame rendered ahead of time on the screen
+        boolean prerendered = ambient && (renderModes & WatchFaceService.AMBIENT_PRERENDER) != 0;
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            harness.drawFrame();
+        }
+
+        // what reading the counter itself allocates, left out of each frame
+        long counterStart = allocatedBytes();
+        long counterBytes = allocatedBytes() - counterStart;
+        long nanos = 0;
+        long allocated = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            harness.tick();
+            assertEquals(prerendered, harness.isPrerendered());
+            long allocatedBefore = allocatedBytes();
+            long startNanos = System.nanoTime();
+            harness.draw();
+            nanos += System.nanoTime() - startNanos;
+            allocated += allocatedBytes() - allocatedBefore - counterBytes;
+            harness.drainPreparer();
+        }
+
+        System.out.println(String.format("%-6s %3d px   %-11s %6.0f   %11d   %10.2f   %s",
+                isRound ? "round" : "square", size, ambient ? "ambient" : "interactive",
+                FRAMES * 1e9 / nanos, allocated / FRAMES, rescaleMs,
+                WatchFaceService.describeRenderModes(renderModes)));
+
+        harness.destroy();
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(mThreadId);
+    }
+
+    // The average cost of scaling the background to a surface of the given size or, tiled,
+    // of cutting the tile out of it and scaling that, the way BackgroundDecoder does.
+    private static double rescaleMillis(BufferedImage background, int size, boolean tiled) {
+        int tileWidth = WatchFaceService.KEVLAR_TILE_WIDTH;
+        int tileHeight = WatchFaceService.KEVLAR_TILE_HEIGHT;
+        int x = (background.getWidth() / 2) / tileWidth * tileWidth;
+        int y = (background.getHeight() / 2) / tileHeight * tileHeight;
+        int scaledTileWidth =
+                Math.max(1, Math.round(tileWidth * size / (float) background.getWidth()));
+        int scaledTileHeight =
+                Math.max(1, Math.round(tileHeight * size / (float) background.getHeight()));
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < RESCALES; i++) {
+            if (tiled) {
+                BufferedImage tile = scale(background.getSubimage(x, y, tileWidth, tileHeight),
+                        tileWidth, tileHeight);
+                scale(tile, scaledTileWidth, scaledTileHeight);
+            } else {
+                scale(background, size, size);
+            }
+        }
+        return (System.nanoTime() - startNanos) / 1e6 / RESCALES;
+    }
+
+    // A bilinearly scaled copy, like createScaledBitmap's.
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Richard Banasiak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.banasiak.android.devopstime;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void recordSortsIntoPowerOfTwoBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(999);          // < 1 us
+        histogram.record(1000);         // [1, 2) us
+        histogram.record(3999);         // [2, 4) us
+        histogram.record(4000);         // [4, 8) us
+        histogram.record(600000);       // [512, 1024) us
+        histogram.record(60000000000L); // a minute, clamped to the last bucket
+
+        long[] expected = new long[LatencyHistogram.BUCKETS];
+        expected[0] = 1;
+        expected[1] = 1;
+        expected[2] = 1;
+        expected[3] = 1;
+        expected[10] = 1;
+        expected[LatencyHistogram.BUCKETS - 1] = 1;
+        assertArrayEquals(expected, histogram.buckets());
+        assertEquals(6, histogram.count());
+        assertEquals(60000000, histogram.maxMicros());
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1500000); // [1024, 2048) us
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000000); // [4096, 8192) us
+        }
+        assertEquals(2048, histogram.percentileMicros(50));
+        assertEquals(2048, histogram.percentileMicros(90));
+        // capped by the maximum
+        assertEquals(5000, histogram.percentileMicros(99));
+        assertEquals(1850, histogram.meanMicros());
+    }
+
+    @Test
+    public void emptyHistogramDumpsZeros() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        new LatencyHistogram().dump(writer, "draw");
+        writer.flush();
+        assertEquals("draw: n=0 mean=0 p50<=0 p90<=0 p99<=0 max=0", out.toString().trim());
+    }
+
+    @Test
+    public void recordDoesNotAllocate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // warm up, through the same loop, so that JIT doesn't count
+        for (int i = 0; i < 100; i++) {
+            recordSamples(histogram, 10000);
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        recordSamples(histogram, 10000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals("bytes allocated by 10000 samples", 0, allocated);
+    }
+
+    private static void recordSamples(LatencyHistogram histogram, int count) {
+        for (int i = 0; i < count; i++) {
+            histogram.record(i * 997L);
+        }
+    }
+}